@@ -4,7 +4,15 @@ import com.google.common.collect.ImmutableSet;
 import com.intellectualsites.commands.Command;
 import com.intellectualsites.rectangular.command.RectangularCommandManager;
 import com.intellectualsites.rectangular.command.impl.*;
+import com.intellectualsites.rectangular.core.ChunkCoverage;
+import com.intellectualsites.rectangular.core.ChunkGridIndex;
+import com.intellectualsites.rectangular.core.IndexEngine;
+import com.intellectualsites.rectangular.core.Quadrant;
+import com.intellectualsites.rectangular.core.RectangleStore;
+import com.intellectualsites.rectangular.database.ConnectionPool;
 import com.intellectualsites.rectangular.database.RectangularDB;
+import com.intellectualsites.rectangular.database.RectangularDBH2;
+import com.intellectualsites.rectangular.database.RectangularDBJournal;
 import com.intellectualsites.rectangular.database.RectangularDBMySQL;
 import com.intellectualsites.rectangular.manager.*;
 import lombok.NonNull;
@@ -100,11 +108,45 @@ public final class Rectangular {
         YamlConfiguration yamlConfiguration = YamlConfiguration.loadConfiguration(new File(provider.getFolder(), "core.yml"));
         Configuration defaults = new MemoryConfiguration();
         ConfigurationSection database = defaults.createSection("database");
+        // mysql, h2 for an embedded database stored in the file below,
+        // or journal for an append-only journal in the directory below
+        database.set("backend", "mysql");
+        database.set("file", "rectangular");
+        database.set("journal-directory", "journal");
+        database.set("journal-compact-size", 8 * 1024 * 1024);
         database.set("username", "root");
         database.set("password", "password");
         database.set("port", 3306);
         database.set("host", "localhost");
         database.set("prefix", "rect__");
+        database.set("fetch-size", 1000);
+        // Loading regions holds one connection, writes and the meta queue share the rest
+        database.set("pool-size", 10);
+        database.set("pool-connection-timeout", 10000);
+        database.set("pool-idle-timeout", 600000);
+        database.set("pool-max-lifetime", 1800000);
+        database.set("pool-validation-timeout", 5);
+        // Time in milliseconds between two logs of the pool statistics, 0 disables them
+        database.set("pool-statistics-interval", 0);
+        database.set("meta-flush-interval", 1000);
+        database.set("meta-flush-size", 256);
+        ConfigurationSection index = defaults.createSection("index");
+        index.set("engine", IndexEngine.QUADTREE.getConfigName());
+        index.set("split-threshold", 32);
+        index.set("max-depth", 16);
+        index.set("grid-max-chunks", 4096);
+        index.set("coverage-max-chunks", 16384);
+        ConfigurationSection regions = defaults.createSection("regions");
+        regions.set("coalesce-write-back", false);
+        regions.set("streaming-load", false);
+        regions.set("compile-threads", 0);
+        regions.set("snapshot", true);
+        // none, direct or mapped, see RectangleStore. Regions then keep nothing but their
+        // rectangles, off the heap: outlines and corners are rebuilt whenever they're asked
+        // for, and lookups test rectangles instead of chunk coverage tables. Sub-region
+        // indexes and the region objects themselves stay on the heap
+        regions.set("off-heap", "none");
+        regions.set("off-heap-initial-records", 65536);
         yamlConfiguration.setDefaults(defaults);
         try {
             yamlConfiguration.save(new File(provider.getFolder(), "core.yml"));
@@ -112,19 +154,22 @@ public final class Rectangular {
             e.printStackTrace();
         }
 
-        logger.accept("Connecting to the MySQL database");
         database = yamlConfiguration.getConfigurationSection("database");
-        RectangularDB db = new RectangularDBMySQL(
-                database.getString("database"),
-                database.getString("username"),
-                database.getString("password"),
-                database.getString("host"),
-                database.getInt("port"),
-                database.getString("prefix")
-        );
+        String backend = database.getString("backend");
+        logger.accept("Connecting to the " + backend + " database");
+        RectangularDB db;
+        try {
+            db = createDatabase(backend, database, provider.getFolder(), logger);
+        } catch (final IllegalArgumentException e) {
+            provider.shutdown(e.getMessage());
+            return;
+        }
+        db.getPlayerMetaQueue().setFlushInterval(database.getLong("meta-flush-interval"));
+        db.getPlayerMetaQueue().setFlushSize(database.getInt("meta-flush-size"));
 
         if (!db.testConnection()) {
-            provider.shutdown("Couldn't connect to MySQL");
+            db.close();
+            provider.shutdown("Couldn't connect to the " + backend + " database");
             return; // Not even needed, but keeping it there anyhow
         }
 
@@ -133,15 +178,99 @@ public final class Rectangular {
         logger.accept("Connection established!");
 
         this.database = db;
+
+        index = yamlConfiguration.getConfigurationSection("index");
+        try {
+            IndexEngine.setDefaultEngine(IndexEngine.fromConfigName(index.getString("engine")));
+        } catch (final IllegalArgumentException e) {
+            provider.logger().warning(e.getMessage() + ", falling back to " + IndexEngine.getDefaultEngine().getConfigName());
+        }
+        Quadrant.setSplitThreshold(index.getInt("split-threshold"));
+        Quadrant.setMaxDepth(index.getInt("max-depth"));
+        ChunkGridIndex.setMaxChunksPerRegion(index.getInt("grid-max-chunks"));
+        ChunkCoverage.setMaxChunks(index.getInt("coverage-max-chunks"));
+
         this.worldManager = provider.getWorldManager();
 
         ContainerManager containerManager = new ContainerManager();
         containerManager.addContainerFactory(this.worldManager);
 
         this.regionManager = new RegionManager(containerManager);
+        regions = yamlConfiguration.getConfigurationSection("regions");
+        this.regionManager.setCoalesceWriteBack(regions.getBoolean("coalesce-write-back"));
+        this.regionManager.setStreamingLoad(regions.getBoolean("streaming-load"));
+        this.regionManager.setCompileThreads(regions.getInt("compile-threads"));
+        if (regions.getBoolean("snapshot")) {
+            this.regionManager.setSnapshotFile(new File(provider.getFolder(), "regions.snapshot"));
+        }
+        int initialRecords = regions.getInt("off-heap-initial-records");
+        switch (regions.getString("off-heap").toLowerCase()) {
+            case "none":
+                break;
+            case "direct":
+                RectangleStore.setDefaultStore(RectangleStore.direct(initialRecords));
+                break;
+            case "mapped":
+                try {
+                    RectangleStore.setDefaultStore(RectangleStore.mapped(
+                            new File(provider.getFolder(), "rectangles.store"), initialRecords));
+                } catch (final IOException e) {
+                    provider.logger().warning("Failed to map the rectangle store, keeping rectangles on the heap: "
+                            + e.getMessage());
+                }
+                break;
+            default:
+                provider.logger().warning("Unknown off-heap mode: " + regions.getString("off-heap")
+                        + ", keeping rectangles on the heap");
+        }
 
         logger.accept("Loading regions async...");
         provider.runAsync(() -> regionManager.load());
     }
 
+    private static RectangularDB createDatabase(String backend, ConfigurationSection database, File folder,
+                                                Consumer<String> logger) {
+        ConnectionPool pool = null;
+        RectangularDB db;
+        switch (backend.toLowerCase()) {
+            case "mysql":
+                RectangularDBMySQL mysql = new RectangularDBMySQL(
+                        database.getString("database"),
+                        database.getString("username"),
+                        database.getString("password"),
+                        database.getString("host"),
+                        database.getInt("port"),
+                        database.getString("prefix"),
+                        database.getInt("pool-size")
+                );
+                mysql.setFetchSize(database.getInt("fetch-size"));
+                pool = mysql.getConnectionPool();
+                db = mysql;
+                break;
+            case "h2":
+                RectangularDBH2 h2 = new RectangularDBH2(new File(folder, database.getString("file")),
+                        database.getString("prefix"), database.getInt("pool-size"));
+                h2.setFetchSize(database.getInt("fetch-size"));
+                pool = h2.getConnectionPool();
+                db = h2;
+                break;
+            case "journal":
+                RectangularDBJournal journal = new RectangularDBJournal(
+                        new File(folder, database.getString("journal-directory")));
+                journal.setCompactSize(database.getLong("journal-compact-size"));
+                db = journal;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown database backend: " + backend);
+        }
+        if (pool != null) {
+            pool.setConnectionTimeout(database.getLong("pool-connection-timeout"));
+            pool.setIdleTimeout(database.getLong("pool-idle-timeout"));
+            pool.setMaxLifetime(database.getLong("pool-max-lifetime"));
+            pool.setValidationTimeout(database.getInt("pool-validation-timeout"));
+            pool.logStatistics(logger, database.getLong("pool-statistics-interval"));
+        }
+        return db;
+    }
+
 }
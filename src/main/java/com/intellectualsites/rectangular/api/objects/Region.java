@@ -6,6 +6,7 @@ import com.intellectualsites.rectangular.core.Rectangle;
 import com.intellectualsites.rectangular.vector.Vector2;
 
 import java.util.Collection;
+import java.util.stream.Stream;
 
 public interface Region {
 
@@ -15,18 +16,32 @@ public interface Region {
 
     boolean isInRegion(Vector2 v2);
 
+    boolean isInRegion(int x, int z);
+
     void compileCorners();
 
     ImmutableList<Vector2> getCorners();
 
     ImmutableCollection<Vector2> getOutline(boolean includeCorners);
 
+    /**
+     * Lazily walk the outline of the region, without
+     * collecting it first
+     *
+     * @param includeCorners Whether or not the corners should be included
+     * @param step Only every n:th block along every edge is returned, 1 returns all of them
+     * @return Stream of outline blocks
+     */
+    Stream<Vector2> streamOutline(boolean includeCorners, int step);
+
     String getContainerID();
 
     Rectangle getBoundingBox();
 
     Rectangle[] getRectangles();
 
+    int getRectangleCount();
+
     com.intellectualsites.rectangular.core.Quadrant[] getQuadrants();
 
     int getWidth();
@@ -49,9 +64,21 @@ public interface Region {
 
     boolean overlaps(Rectangle r2);
 
+    boolean overlaps(int minX, int minZ, int maxX, int maxZ);
+
     boolean isExpandableTo(Rectangle r2);
 
     Rectangle isExceeding(Rectangle r2);
 
     int getRectangle(Vector2 location);
+
+    com.intellectualsites.rectangular.core.ChunkCoverage.ChunkState getChunkState(int chunkX, int chunkZ);
+
+    /**
+     * Free the off-heap storage of the region, once
+     * it has been removed and won't be used again.
+     * A released region is empty, lookups that still
+     * hold it find nothing
+     */
+    void release();
 }
@@ -11,6 +11,7 @@ import com.intellectualsites.rectangular.parser.Parserable;
 import com.intellectualsites.rectangular.player.PlayerEventObserver;
 import com.intellectualsites.rectangular.player.PlayerMeta;
 import com.intellectualsites.rectangular.player.RectangularPlayer;
+import com.intellectualsites.rectangular.util.IntHashSet;
 import com.intellectualsites.rectangular.vector.Vector2;
 import lombok.Getter;
 import org.bukkit.ChatColor;
@@ -95,13 +96,25 @@ public class BukkitPlayer implements RectangularPlayer {
     public void resetRegionCache() {
         Region old = topLevelRegion;
         topLevelRegion = Rectangular.getRegionManager().
-                getHighestLevelRegion(getWorld(),
-                        BukkitUtil.locationToVector(player.getLocation()));
+                getHighestLevelRegion(getWorld(), player.getLocation().getBlockX(), player.getLocation().getBlockZ());
         if (topLevelRegion != null && topLevelRegion != old) {
             getEventObserver().onPlayerEnterRegion();
         }
     }
 
+    /**
+     * Drop the cached region if it's one of the given regions,
+     * it's looked up again the next time it's asked for
+     *
+     * @param regionIDs IDs of the regions
+     */
+    void forgetRegions(IntHashSet regionIDs) {
+        if (topLevelRegion != null && regionIDs.contains(topLevelRegion.getId())) {
+            topLevelRegion = null;
+            regionFetched = false;
+        }
+    }
+
     @Override
     public String getWorld() {
         return player.getWorld().getName();
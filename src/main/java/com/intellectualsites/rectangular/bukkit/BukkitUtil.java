@@ -12,6 +12,7 @@ import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.UUID;
 
@@ -29,6 +30,10 @@ public class BukkitUtil {
         return playerRegistry.get(player.getUniqueId().toString());
     }
 
+    public static Collection<BukkitPlayer> getPlayers() {
+        return playerRegistry.values();
+    }
+
     public static void removePlayer(@NonNull final UUID uuid) {
         playerRegistry.remove(uuid.toString());
         // Just in case the player disconnected before it was fetched
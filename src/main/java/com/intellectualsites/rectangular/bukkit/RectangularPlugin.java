@@ -7,8 +7,10 @@ import com.intellectualsites.commands.CommandHandlingOutput;
 import com.intellectualsites.rectangular.Rectangular;
 import com.intellectualsites.rectangular.api.objects.Region;
 import com.intellectualsites.rectangular.bukkit.listener.PlayerListener;
+import com.intellectualsites.rectangular.bukkit.listener.WorldListener;
 import com.intellectualsites.rectangular.bukkit.nms.NMSImplementation;
 import com.intellectualsites.rectangular.core.Rectangle;
+import com.intellectualsites.rectangular.core.RectangleStore;
 import com.intellectualsites.rectangular.event.RectangularListener;
 import com.intellectualsites.rectangular.event.impl.PlayerEnteredRegionEvent;
 import com.intellectualsites.rectangular.event.impl.PlayerLeftRegionEvent;
@@ -20,6 +22,7 @@ import com.intellectualsites.rectangular.manager.WorldManager;
 import com.intellectualsites.rectangular.player.PlayerMeta;
 import com.intellectualsites.rectangular.player.RectangularPlayer;
 import com.intellectualsites.rectangular.selection.SelectionManager;
+import com.intellectualsites.rectangular.util.IntHashSet;
 import com.intellectualsites.rectangular.vector.Vector2;
 import lombok.Getter;
 import org.bukkit.Bukkit;
@@ -43,6 +46,8 @@ public class RectangularPlugin extends JavaPlugin implements ServiceManager, Rec
 
     private SelectionManager selectionManager;
 
+    private WorldManager worldManager;
+
     @Getter
     private static NMSImplementation nmsImplementation;
 
@@ -57,6 +62,7 @@ public class RectangularPlugin extends JavaPlugin implements ServiceManager, Rec
         }
         this.selectionManager = new BukkitSelectionManager();
         this.getServer().getPluginManager().registerEvents(new PlayerListener(), this);
+        this.getServer().getPluginManager().registerEvents(new WorldListener(), this);
         this.getServer().getPluginManager().registerEvents(this, this);
         try {
             Rectangular.setup(this);
@@ -70,6 +76,17 @@ public class RectangularPlugin extends JavaPlugin implements ServiceManager, Rec
         getServer().getPluginManager().registerEvents((BukkitSelectionManager) this.selectionManager, this);
     }
 
+    @Override
+    public void onDisable() {
+        // Setup may have been cut short
+        if (Rectangular.get() != null && Rectangular.getDatabase() != null) {
+            Rectangular.getDatabase().close();
+        }
+        if (RectangleStore.getDefaultStore() != null) {
+            RectangleStore.getDefaultStore().close();
+        }
+    }
+
     @Subscribe
     public void onPlayerLeftRegion(final PlayerLeftRegionEvent event) {
         event.getPlayer().sendMessage("&cYou left region: " + event.getOldRegion().getId());
@@ -104,21 +121,18 @@ public class RectangularPlugin extends JavaPlugin implements ServiceManager, Rec
             return;
         }
 
-        Rectangle bonds = new Rectangle();
         int change = BukkitPlayer.INDICATOR_MAX_CHUNKS * 16;
         int maxX = newX + change;
         int minX = newX - change;
         int minZ = newZ - change;
         int maxZ = newZ + change;
-        bonds.getMin().set(minX, minZ);
-        bonds.getMax().set(maxX, maxZ);
 
         Player player = event.getPlayer();
 
         bukkitPlayer.deleteIndicators();
 
         for (Region r : Rectangular.getWorldManager().getRegionsInWorld(bukkitPlayer.getWorld())) {
-            if (!r.overlaps(bonds)) {
+            if (!r.overlaps(minX, minZ, maxX, maxZ)) {
                 continue;
             }
 
@@ -141,20 +155,20 @@ public class RectangularPlugin extends JavaPlugin implements ServiceManager, Rec
                         bukkitPlayer.showIndicator(location.getX(), location.getY(), location.getZ(),
                                 DyeColor.values()[i].name());
                     }
-                    for (final Vector2 vector2 : r.getOutline(false)) {
+                    r.streamOutline(false, 1).forEach(vector2 -> {
                         Location location = BukkitUtil.vectorToLocation(player.getWorld(), vector2, player.getLocation().getY() + 0.5d);
                         location.add(0, -0.3d, 0);
                         bukkitPlayer.showIndicator(location.getX(), location.getY(), location.getZ(),
                                 DyeColor.BLACK.name());
-                    }
+                    });
                 } break;
                 case "outline": {
-                    for (Vector2 vector2 : r.getOutline(true)) {
+                    r.streamOutline(true, 1).forEach(vector2 -> {
                         Location location = BukkitUtil.vectorToLocation(player.getWorld(), vector2, player.getLocation().getY() + 0.5d);
                         location.add(0, -0.3d, 0);
                         bukkitPlayer.showIndicator(location.getX(), location.getY(), location.getZ(),
                                 DyeColor.BLACK.name());
-                    }
+                    });
                 } break;
                 case "rectangles": {
                     for (Rectangle re : r.getRectangles()) {
@@ -177,9 +191,13 @@ public class RectangularPlugin extends JavaPlugin implements ServiceManager, Rec
 
     @Override
     public WorldManager getWorldManager() {
-        Set<String> worlds = new HashSet<>();
-        Bukkit.getWorlds().forEach(world -> worlds.add(world.getName()));
-        return new WorldManager(worlds);
+        // Worlds are added and removed by the WorldListener, so there may only be one
+        if (worldManager == null) {
+            Set<String> worlds = new HashSet<>();
+            Bukkit.getWorlds().forEach(world -> worlds.add(world.getName()));
+            worldManager = new WorldManager(worlds);
+        }
+        return worldManager;
     }
 
     @Override
@@ -245,6 +263,13 @@ public class RectangularPlugin extends JavaPlugin implements ServiceManager, Rec
         return BukkitUtil.getPlayer(Bukkit.getPlayer(uuid));
     }
 
+    @Override
+    public void forgetRegions(IntHashSet regionIDs) {
+        for (BukkitPlayer player : BukkitUtil.getPlayers()) {
+            player.forgetRegions(regionIDs);
+        }
+    }
+
     private Map<String, PlayerMeta> preFetched = new ConcurrentHashMap<>();
 
     @Override
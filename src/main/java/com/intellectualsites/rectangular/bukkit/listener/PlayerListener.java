@@ -4,6 +4,7 @@ import com.intellectualsites.rectangular.Rectangular;
 import com.intellectualsites.rectangular.api.objects.Region;
 import com.intellectualsites.rectangular.bukkit.BukkitPlayer;
 import com.intellectualsites.rectangular.bukkit.BukkitUtil;
+import org.bukkit.Location;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
@@ -38,7 +39,8 @@ public class PlayerListener implements Listener {
         }
 
         if (old != null) { // Were in a region, check if still is
-            if (!player.getRegion().isInRegion(BukkitUtil.locationToVector(event.getPlayer().getLocation()))) { // Player is no longer in that region
+            Location location = event.getPlayer().getLocation();
+            if (!player.getRegion().isInRegion(location.getBlockX(), location.getBlockZ())) { // Player is no longer in that region
                 player.resetRegionCache();
                 player.getEventObserver().onPlayerLeaveRegion(old);
             }
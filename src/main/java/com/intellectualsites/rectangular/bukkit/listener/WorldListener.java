@@ -0,0 +1,27 @@
+package com.intellectualsites.rectangular.bukkit.listener;
+
+import com.intellectualsites.rectangular.Rectangular;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+public class WorldListener implements Listener {
+
+    @EventHandler
+    public void onWorldLoad(WorldLoadEvent event) {
+        if (Rectangular.getRegionManager() == null) {
+            return; // Still starting up, the world will be loaded with the rest
+        }
+        String world = event.getWorld().getName();
+        Rectangular.getServiceManager().runAsync(() -> Rectangular.getRegionManager().loadWorld(world));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        if (Rectangular.getRegionManager() != null) {
+            Rectangular.getRegionManager().unloadWorld(event.getWorld().getName());
+        }
+    }
+}
@@ -58,7 +58,7 @@ public class Expand extends Command {
                             rectangles.addAll(Arrays.asList(region.getRectangles()));
                             rectangles.add(rectangle);
                             region.setRectangles(rectangles);
-                            region.compile();
+                            Rectangular.getRegionManager().compileRegion(region);
                             Rectangular.getRegionManager().addRegionUnsafe(region);
                             Message.INFO_SUCCESS.send(player);
                         } catch (final Exception e) {
@@ -0,0 +1,122 @@
+package com.intellectualsites.rectangular.core;
+
+import com.intellectualsites.rectangular.util.LongHashMap;
+import com.intellectualsites.rectangular.vector.PackedVector2;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+/**
+ * Classifies the chunks touched by a region as fully
+ * inside, partially inside or outside of the region.
+ * Partially covered chunks keep a 16x16 bit mask of
+ * the covered blocks, so every lookup is exact and
+ * never has to test any rectangles
+ *
+ * @author Citymonstret
+ */
+public class ChunkCoverage {
+
+    public enum ChunkState {
+        OUTSIDE, PARTIAL, INSIDE
+    }
+
+    /**
+     * Regions whose bounding box spans more chunks
+     * than this will not get a coverage table
+     */
+    @Getter
+    @Setter
+    private static int maxChunks = 16384;
+
+    /**
+     * Shared mask of fully covered chunks, compared by identity
+     */
+    private static final long[] FULL = new long[] { -1L, -1L, -1L, -1L };
+
+    private final LongHashMap<long[]> masks = new LongHashMap<>();
+
+    public ChunkCoverage() {
+    }
+
+    /**
+     * Copy a table, so that rectangles can be added
+     * without touching the table it was copied from
+     *
+     * @param coverage Table to copy
+     */
+    public ChunkCoverage(@NonNull final ChunkCoverage coverage) {
+        coverage.masks.forEach((key, mask) -> masks.put(key, mask == FULL ? FULL : mask.clone()));
+    }
+
+    public static boolean isApplicable(@NonNull final Rectangle boundingBox) {
+        final long chunkCount = (((long) boundingBox.getMax().getX() >> 4) - (boundingBox.getMin().getX() >> 4) + 1)
+                * (((long) boundingBox.getMax().getY() >> 4) - (boundingBox.getMin().getY() >> 4) + 1);
+        return chunkCount <= maxChunks;
+    }
+
+    /**
+     * Add the blocks of a rectangle to the table. This only
+     * touches the chunks that the rectangle overlaps
+     *
+     * @param rectangle Rectangle to add
+     */
+    public void addRectangle(@NonNull final Rectangle rectangle) {
+        final int minX = rectangle.getMin().getX(), minZ = rectangle.getMin().getY();
+        final int maxX = rectangle.getMax().getX(), maxZ = rectangle.getMax().getY();
+        for (int cx = minX >> 4; cx <= maxX >> 4; cx++) {
+            final int fromX = Math.max(minX, cx << 4) & 15, toX = Math.min(maxX, (cx << 4) + 15) & 15;
+            for (int cz = minZ >> 4; cz <= maxZ >> 4; cz++) {
+                final long key = PackedVector2.pack(cx, cz);
+                long[] mask = masks.get(key);
+                if (mask == FULL) {
+                    continue;
+                }
+                final int fromZ = Math.max(minZ, cz << 4) & 15, toZ = Math.min(maxZ, (cz << 4) + 15) & 15;
+                if (fromX == 0 && toX == 15 && fromZ == 0 && toZ == 15) {
+                    masks.put(key, FULL);
+                    continue;
+                }
+                if (mask == null) {
+                    mask = new long[4];
+                    masks.put(key, mask);
+                }
+                // Every row of 16 blocks is 16 bits, so every long holds 4 rows
+                final long row = (-1L >>> (63 - toX + fromX)) << fromX;
+                for (int z = fromZ; z <= toZ; z++) {
+                    mask[z >> 2] |= row << ((z & 3) << 4);
+                }
+                if (mask[0] == -1L && mask[1] == -1L && mask[2] == -1L && mask[3] == -1L) {
+                    masks.put(key, FULL);
+                }
+            }
+        }
+    }
+
+    public ChunkState getChunkState(final int chunkX, final int chunkZ) {
+        final long[] mask = masks.get(PackedVector2.pack(chunkX, chunkZ));
+        if (mask == null) {
+            return ChunkState.OUTSIDE;
+        }
+        return mask == FULL ? ChunkState.INSIDE : ChunkState.PARTIAL;
+    }
+
+    /**
+     * Check if a block is covered
+     *
+     * @param x Block X
+     * @param z Block Z
+     * @return True if the block is inside of the region
+     */
+    public boolean isInside(final int x, final int z) {
+        final long[] mask = masks.get(PackedVector2.pack(x >> 4, z >> 4));
+        if (mask == null) {
+            return false;
+        }
+        if (mask == FULL) {
+            return true;
+        }
+        final int bit = ((z & 15) << 4) | (x & 15);
+        return (mask[bit >> 6] & (1L << (bit & 63))) != 0;
+    }
+}
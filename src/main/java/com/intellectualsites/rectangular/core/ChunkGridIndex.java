@@ -0,0 +1,318 @@
+package com.intellectualsites.rectangular.core;
+
+import com.intellectualsites.rectangular.util.IntList;
+import com.intellectualsites.rectangular.util.LongHashMap;
+import com.intellectualsites.rectangular.vector.PackedVector2;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Spatial hash grid, which maps every chunk to the regions
+ * whose bounding box touches the chunk. A point lookup is
+ * a single hash probe
+ * <p>
+ * Every chunk holds a flat int array of (id, minX, minY, maxX, maxY)
+ * records, so the bounding boxes never have to be looked up by ID
+ * <p>
+ * Chunks are grouped in pages of 16x16 chunks. Copies of a grid share
+ * their pages, and a page is copied once either grid modifies it
+ *
+ * @author Citymonstret
+ */
+public class ChunkGridIndex implements RegionIndex {
+
+    private static final int[] EMPTY = new int[0];
+
+    private static final int RECORD = 5;
+    private static final int ID = 0, MIN_X = 1, MIN_Y = 2, MAX_X = 3, MAX_Y = 4;
+
+    private static final int PAGE_SHIFT = 4, PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+
+    /**
+     * Regions that cover more chunks than this are kept
+     * in a separate list, rather than in every chunk
+     */
+    @Getter
+    @Setter
+    private static int maxChunksPerRegion = 4096;
+
+    // Pages by (chunk x >> 4, chunk z >> 4). The map itself is shared with
+    // the grid it was copied from, until this grid modifies it
+    private LongHashMap<Page> pages;
+    private boolean sharedPages;
+
+    // A page may only be modified by the grid with the same owner
+    private Object owner = new Object();
+
+    // The record arrays are replaced rather than modified, so copies can share them
+    private int[] oversized = EMPTY;
+
+    private int size;
+
+    public ChunkGridIndex() {
+        this.pages = new LongHashMap<>();
+    }
+
+    private ChunkGridIndex(final ChunkGridIndex index) {
+        this.pages = index.pages;
+        this.sharedPages = true;
+        this.oversized = index.oversized;
+        this.size = index.size;
+    }
+
+    public static long getChunkKey(final int x, final int z) {
+        return PackedVector2.pack(x >> 4, z >> 4);
+    }
+
+    private int[] getChunk(final int cx, final int cz) {
+        final Page page = pages.get(PackedVector2.pack(cx >> PAGE_SHIFT, cz >> PAGE_SHIFT));
+        return page == null ? null : page.chunks[Page.slot(cx, cz)];
+    }
+
+    private void setChunk(final int cx, final int cz, final int[] records) {
+        if (sharedPages) {
+            pages = new LongHashMap<>(pages);
+            sharedPages = false;
+        }
+        final long key = PackedVector2.pack(cx >> PAGE_SHIFT, cz >> PAGE_SHIFT);
+        Page page = pages.get(key);
+        if (page == null) {
+            if (records == null) {
+                return;
+            }
+            page = new Page(owner, new int[1 << (PAGE_SHIFT * 2)][]);
+            pages.put(key, page);
+        } else if (page.owner != owner) {
+            page = new Page(owner, page.chunks.clone());
+            pages.put(key, page);
+        }
+        final int slot = Page.slot(cx, cz);
+        if (page.chunks[slot] == null) {
+            page.used++;
+        }
+        if (records == null) {
+            page.used--;
+        }
+        page.chunks[slot] = records;
+        if (page.used == 0) {
+            pages.remove(key);
+        }
+    }
+
+    @Override
+    public void insert(final int id, @NonNull final Rectangle box) {
+        size++;
+        if (isOversized(box)) {
+            oversized = append(oversized, id, box);
+            return;
+        }
+        for (int cx = box.getMin().getX() >> 4; cx <= box.getMax().getX() >> 4; cx++) {
+            for (int cz = box.getMin().getY() >> 4; cz <= box.getMax().getY() >> 4; cz++) {
+                final int[] records = getChunk(cx, cz);
+                setChunk(cx, cz, append(records == null ? EMPTY : records, id, box));
+            }
+        }
+    }
+
+    @Override
+    public boolean remove(final int id, @NonNull final Rectangle box) {
+        if (isOversized(box)) {
+            final int[] remaining = without(oversized, id);
+            if (remaining == oversized) {
+                return false;
+            }
+            oversized = remaining;
+            size--;
+            return true;
+        }
+        boolean found = false;
+        for (int cx = box.getMin().getX() >> 4; cx <= box.getMax().getX() >> 4; cx++) {
+            for (int cz = box.getMin().getY() >> 4; cz <= box.getMax().getY() >> 4; cz++) {
+                final int[] records = getChunk(cx, cz);
+                if (records == null) {
+                    continue;
+                }
+                final int[] remaining = without(records, id);
+                if (remaining == records) {
+                    continue;
+                }
+                found = true;
+                setChunk(cx, cz, remaining.length == 0 ? null : remaining);
+            }
+        }
+        if (found) {
+            size--;
+        }
+        return found;
+    }
+
+    @Override
+    public RegionIndex copy() {
+        final ChunkGridIndex copy = new ChunkGridIndex(this);
+        // This grid also has to stop modifying the shared pages
+        this.owner = new Object();
+        this.sharedPages = true;
+        return copy;
+    }
+
+    @Override
+    public boolean visit(final int x, final int y, @NonNull final IntPredicate visitor) {
+        final int[] records = getChunk(x >> 4, y >> 4);
+        return (records == null || visit(records, x, y, visitor)) && visit(oversized, x, y, visitor);
+    }
+
+    private static boolean visit(final int[] records, final int x, final int y, final IntPredicate visitor) {
+        for (int i = 0; i < records.length; i += RECORD) {
+            if (x >= records[i + MIN_X] && x <= records[i + MAX_X] && y >= records[i + MIN_Y]
+                    && y <= records[i + MAX_Y] && !visitor.test(records[i + ID])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void collect(@NonNull final Rectangle area, @NonNull final IntList out) {
+        final int minX = area.getMin().getX(), minY = area.getMin().getY();
+        final int maxX = area.getMax().getX(), maxY = area.getMax().getY();
+        final int minCX = minX >> 4, minCZ = minY >> 4;
+        final long chunkCount = (((long) maxX >> 4) - minCX + 1) * (((long) maxY >> 4) - minCZ + 1);
+        if (chunkCount > size) {
+            // Cheaper to test every record than to probe every chunk. Every
+            // record is reported from the chunk that holds its min corner
+            forEachChunk((cx, cz, records) -> {
+                for (int i = 0; i < records.length; i += RECORD) {
+                    if (isMinCorner(records, i, cx, cz) && overlaps(records, i, minX, minY, maxX, maxY)) {
+                        out.add(records[i + ID]);
+                    }
+                }
+            });
+        } else {
+            for (int cx = minCX; cx <= maxX >> 4; cx++) {
+                for (int cz = minCZ; cz <= maxY >> 4; cz++) {
+                    final int[] records = getChunk(cx, cz);
+                    if (records == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < records.length; i += RECORD) {
+                        // A record is in every chunk it touches, so it's only reported
+                        // from the first chunk of its overlap with the area
+                        if (overlaps(records, i, minX, minY, maxX, maxY)
+                                && cx == Math.max(minCX, records[i + MIN_X] >> 4)
+                                && cz == Math.max(minCZ, records[i + MIN_Y] >> 4)) {
+                            out.add(records[i + ID]);
+                        }
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < oversized.length; i += RECORD) {
+            if (overlaps(oversized, i, minX, minY, maxX, maxY)) {
+                out.add(oversized[i + ID]);
+            }
+        }
+    }
+
+    @Override
+    public void collectAll(@NonNull final IntList outIds, @NonNull final List<Rectangle> outBoxes) {
+        forEachChunk((cx, cz, records) -> {
+            for (int i = 0; i < records.length; i += RECORD) {
+                if (isMinCorner(records, i, cx, cz)) {
+                    addRecord(records, i, outIds, outBoxes);
+                }
+            }
+        });
+        for (int i = 0; i < oversized.length; i += RECORD) {
+            addRecord(oversized, i, outIds, outBoxes);
+        }
+    }
+
+    private void forEachChunk(final ChunkConsumer consumer) {
+        pages.forEach((key, page) -> {
+            final int pageX = PackedVector2.getX(key) << PAGE_SHIFT, pageZ = PackedVector2.getY(key) << PAGE_SHIFT;
+            for (int slot = 0; slot < page.chunks.length; slot++) {
+                if (page.chunks[slot] != null) {
+                    consumer.accept(pageX | (slot >> PAGE_SHIFT), pageZ | (slot & PAGE_MASK), page.chunks[slot]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Every record is in all the chunks it touches, but
+     * only the chunk of its min corner reports it
+     */
+    private static boolean isMinCorner(final int[] records, final int i, final int cx, final int cz) {
+        return records[i + MIN_X] >> 4 == cx && records[i + MIN_Y] >> 4 == cz;
+    }
+
+    private static void addRecord(final int[] records, final int i, final IntList outIds,
+                                  final List<Rectangle> outBoxes) {
+        outIds.add(records[i + ID]);
+        outBoxes.add(new Rectangle(records[i + MIN_X], records[i + MIN_Y], records[i + MAX_X], records[i + MAX_Y]));
+    }
+
+    private static boolean overlaps(final int[] records, final int i, final int minX, final int minY,
+                                    final int maxX, final int maxY) {
+        return minX <= records[i + MAX_X] && maxX >= records[i + MIN_X]
+                && minY <= records[i + MAX_Y] && maxY >= records[i + MIN_Y];
+    }
+
+    private static boolean isOversized(final Rectangle box) {
+        final long chunkCount = (((long) box.getMax().getX() >> 4) - (box.getMin().getX() >> 4) + 1)
+                * (((long) box.getMax().getY() >> 4) - (box.getMin().getY() >> 4) + 1);
+        return chunkCount > maxChunksPerRegion;
+    }
+
+    private static int[] append(final int[] records, final int id, final Rectangle box) {
+        final int[] result = Arrays.copyOf(records, records.length + RECORD);
+        result[records.length + ID] = id;
+        result[records.length + MIN_X] = box.getMin().getX();
+        result[records.length + MIN_Y] = box.getMin().getY();
+        result[records.length + MAX_X] = box.getMax().getX();
+        result[records.length + MAX_Y] = box.getMax().getY();
+        return result;
+    }
+
+    private static int[] without(final int[] records, final int id) {
+        for (int i = 0; i < records.length; i += RECORD) {
+            if (records[i + ID] == id) {
+                final int[] result = new int[records.length - RECORD];
+                System.arraycopy(records, 0, result, 0, i);
+                System.arraycopy(records, i + RECORD, result, i, records.length - i - RECORD);
+                return result;
+            }
+        }
+        return records;
+    }
+
+    private interface ChunkConsumer {
+        void accept(int cx, int cz, int[] records);
+    }
+
+    private static final class Page {
+
+        private final Object owner;
+        private final int[][] chunks;
+        private int used;
+
+        private Page(final Object owner, final int[][] chunks) {
+            this.owner = owner;
+            this.chunks = chunks;
+            for (final int[] records : chunks) {
+                if (records != null) {
+                    used++;
+                }
+            }
+        }
+
+        private static int slot(final int cx, final int cz) {
+            return ((cx & PAGE_MASK) << PAGE_SHIFT) | (cz & PAGE_MASK);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.intellectualsites.rectangular.core;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+
+import java.util.function.Function;
+
+/**
+ * The spatial index implementations that
+ * a {@link RegionContainer} can be backed by
+ *
+ * @author Citymonstret
+ */
+@RequiredArgsConstructor
+public enum IndexEngine {
+    QUADTREE    ("quadtree", bounds -> new Quadrant(bounds.getMin().clone(), bounds.getMax().clone())),
+    RTREE       ("rtree", bounds -> new RTreeIndex()),
+    GRID        ("grid", bounds -> new ChunkGridIndex())
+    ;
+
+    /**
+     * The engine used by new containers
+     */
+    @Getter
+    @Setter
+    private static IndexEngine defaultEngine = QUADTREE;
+
+    @Getter
+    private final String configName;
+
+    private final Function<Rectangle, RegionIndex> factory;
+
+    public RegionIndex createIndex(@NonNull final Rectangle bounds) {
+        return factory.apply(bounds);
+    }
+
+    public static IndexEngine fromConfigName(@NonNull final String name) {
+        for (final IndexEngine engine : values()) {
+            if (engine.getConfigName().equalsIgnoreCase(name)) {
+                return engine;
+            }
+        }
+        throw new IllegalArgumentException("Unknown index engine: " + name);
+    }
+}
@@ -1,18 +1,70 @@
 package com.intellectualsites.rectangular.core;
 
+import com.intellectualsites.rectangular.util.IntList;
 import com.intellectualsites.rectangular.vector.Vector2;
 import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.IntPredicate;
 
-public class Quadrant extends Rectangle {
+/**
+ * A quadrant is a node in a region quadtree. Entries that fit
+ * inside one of the child quadrants are pushed down, while the
+ * entries that straddle the split lines stay in the node itself
+ * <p>
+ * Copies of a tree share their nodes, until one of the trees
+ * modifies a node, which then copies the node and the path to it
+ *
+ * @author Citymonstret
+ */
+public class Quadrant extends Rectangle implements RegionIndex {
 
+    /**
+     * Amount of entries a quadrant may hold before it's split
+     */
     @Getter
-    private final List<Integer> ids = new ArrayList<>();
+    @Setter
+    private static int splitThreshold = 32;
+
+    /**
+     * The maximum depth of a quadtree, quadrants at
+     * this depth will never be split
+     */
+    @Getter
+    @Setter
+    private static int maxDepth = 16;
+
+    @Getter
+    private final IntList ids = new IntList();
+
+    private final List<Rectangle> boxes = new ArrayList<>();
+
+    @Getter
+    private final int depth;
+
+    @Getter
+    private Quadrant[] children;
+
+    private int midX, midY;
+
+    // A node may only be modified by the tree with the same owner
+    private Object owner;
 
     public Quadrant(final Vector2 min, final Vector2 max) {
+        this(min, max, 0);
+    }
+
+    public Quadrant(final Vector2 min, final Vector2 max, final int depth) {
+        this(min, max, depth, null);
+    }
+
+    private Quadrant(final Vector2 min, final Vector2 max, final int depth, final Object owner) {
         super(min, max);
+        this.depth = depth;
+        this.owner = owner;
     }
 
     public static Quadrant findQuadrant(Quadrant[] quadrants, float midX, float midY, Vector2 v2) {
@@ -36,4 +88,196 @@ public class Quadrant extends Rectangle {
     public boolean isEmpty() {
         return ids.isEmpty();
     }
+
+    public boolean isLeaf() {
+        return children == null;
+    }
+
+    /**
+     * Insert an entry into the tree
+     *
+     * @param id Entry ID
+     * @param box Bounding box of the entry
+     */
+    @Override
+    public void insert(final int id, @NonNull final Rectangle box) {
+        if (!isLeaf()) {
+            final int child = getChildIndex(box);
+            if (child != -1) {
+                getOwnedChild(child).insert(id, box);
+                return;
+            }
+        }
+        ids.add(id);
+        boxes.add(box);
+        if (isLeaf() && ids.size() > splitThreshold && isSplittable()) {
+            split();
+        }
+    }
+
+    /**
+     * Remove an entry from the tree. The box leads
+     * the way down, the same way it did for the insert
+     *
+     * @param id Entry ID
+     * @param box Bounding box that the entry was inserted with
+     * @return True if the entry was found
+     */
+    @Override
+    public boolean remove(final int id, @NonNull final Rectangle box) {
+        if (!isLeaf()) {
+            final int child = getChildIndex(box);
+            if (child != -1) {
+                return getOwnedChild(child).remove(id, box);
+            }
+        }
+        final int index = ids.indexOf(id);
+        if (index == -1) {
+            return false;
+        }
+        ids.removeAt(index);
+        boxes.remove(index);
+        return true;
+    }
+
+    /**
+     * Copy the tree. Only the root is copied right away, the
+     * other nodes are copied once either tree modifies them
+     *
+     * @return The copy
+     */
+    @Override
+    public Quadrant copy() {
+        final Quadrant copy = copyNode(new Object());
+        // This tree also has to stop modifying the shared nodes
+        this.owner = new Object();
+        return copy;
+    }
+
+    private Quadrant copyNode(final Object owner) {
+        final Quadrant copy = new Quadrant(getMin(), getMax(), depth, owner);
+        copy.ids.addAll(ids);
+        copy.boxes.addAll(boxes);
+        copy.children = children == null ? null : children.clone();
+        copy.midX = midX;
+        copy.midY = midY;
+        return copy;
+    }
+
+    private Quadrant getOwnedChild(final int index) {
+        Quadrant child = children[index];
+        if (child.owner != owner) {
+            child = children[index] = child.copyNode(owner);
+        }
+        return child;
+    }
+
+    /**
+     * Visit all entries that may contain the point, starting
+     * at the root and walking down towards the deepest quadrant
+     *
+     * @param x Point X
+     * @param y Point Y
+     * @param visitor Visitor, return false to stop the search
+     * @return False if the search was stopped by the visitor
+     */
+    @Override
+    public boolean visit(final int x, final int y, @NonNull final IntPredicate visitor) {
+        Quadrant quadrant = this;
+        while (quadrant != null) {
+            for (int i = 0; i < quadrant.ids.size(); i++) {
+                if (!visitor.test(quadrant.ids.get(i))) {
+                    return false;
+                }
+            }
+            quadrant = quadrant.isLeaf() ? null : quadrant.children[quadrant.getChildIndex(x, y)];
+        }
+        return true;
+    }
+
+    /**
+     * Collect all entries whose bounding box overlaps the area
+     *
+     * @param area Area to search in
+     * @param out List that the entries are added to
+     */
+    @Override
+    public void collect(@NonNull final Rectangle area, @NonNull final IntList out) {
+        if (!overlaps(area)) {
+            return;
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            if (boxes.get(i).overlaps(area)) {
+                out.add(ids.get(i));
+            }
+        }
+        if (!isLeaf()) {
+            for (final Quadrant child : children) {
+                child.collect(area, out);
+            }
+        }
+    }
+
+    /**
+     * Collect every entry in the tree, along with its bounding box
+     *
+     * @param outIds List that the IDs are added to
+     * @param outBoxes List that the bounding boxes are added to
+     */
+    @Override
+    public void collectAll(@NonNull final IntList outIds, @NonNull final List<Rectangle> outBoxes) {
+        outIds.addAll(ids);
+        outBoxes.addAll(boxes);
+        if (!isLeaf()) {
+            for (final Quadrant child : children) {
+                child.collectAll(outIds, outBoxes);
+            }
+        }
+    }
+
+    private boolean isSplittable() {
+        return depth < maxDepth && getMax().getX() > getMin().getX()
+                && getMax().getY() > getMin().getY();
+    }
+
+    private void split() {
+        // Long math, as the world quadtree spans the entire int range
+        this.midX = (int) (((long) getMin().getX() + getMax().getX()) >> 1);
+        this.midY = (int) (((long) getMin().getY() + getMax().getY()) >> 1);
+
+        final int childDepth = depth + 1;
+        this.children = new Quadrant[] {
+                new Quadrant(new Vector2(midX + 1, midY + 1), getMax().clone(), childDepth, owner),
+                new Quadrant(new Vector2(midX + 1, getMin().getY()), new Vector2(getMax().getX(), midY), childDepth, owner),
+                new Quadrant(getMin().clone(), new Vector2(midX, midY), childDepth, owner),
+                new Quadrant(new Vector2(getMin().getX(), midY + 1), new Vector2(midX, getMax().getY()), childDepth, owner)
+        };
+
+        // Push down everything that fits into a child
+        final int[] oldIds = ids.toArray();
+        final List<Rectangle> oldBoxes = new ArrayList<>(boxes);
+        ids.clear();
+        boxes.clear();
+        for (int i = 0; i < oldIds.length; i++) {
+            insert(oldIds[i], oldBoxes.get(i));
+        }
+    }
+
+    private int getChildIndex(final int x, final int y) {
+        if (x > midX) {
+            return y > midY ? 0 : 1;
+        }
+        return y > midY ? 3 : 2;
+    }
+
+    private int getChildIndex(final Rectangle box) {
+        final boolean east = box.getMin().getX() > midX, west = box.getMax().getX() <= midX;
+        final boolean north = box.getMin().getY() > midY, south = box.getMax().getY() <= midY;
+        if (east) {
+            return north ? 0 : south ? 1 : -1;
+        } else if (west) {
+            return south ? 2 : north ? 3 : -1;
+        }
+        return -1;
+    }
 }
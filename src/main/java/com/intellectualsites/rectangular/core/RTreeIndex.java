@@ -0,0 +1,532 @@
+package com.intellectualsites.rectangular.core;
+
+import com.intellectualsites.rectangular.util.IntList;
+import com.intellectualsites.rectangular.vector.Vector2;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * R-tree over region bounding boxes. Batches are packed
+ * using Sort-Tile-Recursive (STR) bulk loading, while
+ * later inserts use Guttman's quadratic split
+ * <p>
+ * Copies of a tree share their nodes. Inserts and removals copy
+ * the nodes on their path, unless the tree owns them already
+ *
+ * @author Citymonstret
+ */
+public class RTreeIndex implements RegionIndex {
+
+    private static final int MAX_ENTRIES = 16;
+    private static final int MIN_ENTRIES = 6;
+
+    // A node may only be modified by the tree with the same owner
+    private Object owner = new Object();
+
+    // The leaf entries hold the bounding boxes, so there's no separate ID map
+    private Node root;
+
+    public RTreeIndex() {
+        this.root = new Node(true, owner);
+    }
+
+    private RTreeIndex(final Node root) {
+        this.root = root;
+    }
+
+    @Override
+    public void insert(final int id, @NonNull final Rectangle box) {
+        insertEntry(Entry.of(id, box));
+    }
+
+    @Override
+    public boolean remove(final int id, @NonNull final Rectangle box) {
+        final List<Entry> orphans = new ArrayList<>();
+        Node root = remove(this.root, id, box, orphans);
+        if (root == null) {
+            return false;
+        }
+        while (!root.leaf && root.entries.size() == 1) {
+            root = root.entries.get(0).child;
+        }
+        this.root = root.leaf || !root.entries.isEmpty() ? root : new Node(true, owner);
+        orphans.forEach(this::insertEntry);
+        return true;
+    }
+
+    @Override
+    public boolean visit(final int x, final int y, @NonNull final IntPredicate visitor) {
+        return visit(root, x, y, visitor);
+    }
+
+    @Override
+    public void collect(@NonNull final Rectangle area, @NonNull final IntList out) {
+        collect(root, area.getMin().getX(), area.getMin().getY(),
+                area.getMax().getX(), area.getMax().getY(), out);
+    }
+
+    @Override
+    public void collectAll(@NonNull final IntList outIds, @NonNull final List<Rectangle> outBoxes) {
+        final List<Entry> entries = new ArrayList<>();
+        collectLeafEntries(root, entries);
+        for (final Entry entry : entries) {
+            outIds.add(entry.id);
+            outBoxes.add(new Rectangle(entry.minX, entry.minY, entry.maxX, entry.maxY));
+        }
+    }
+
+    /**
+     * Copy the tree. Only the root is shared at first, nodes
+     * are copied once either tree modifies them
+     *
+     * @return The copy
+     */
+    @Override
+    public RegionIndex copy() {
+        final RTreeIndex copy = new RTreeIndex(root);
+        // This tree also has to stop modifying the shared nodes
+        this.owner = new Object();
+        return copy;
+    }
+
+    @Override
+    public void bulkLoad(@NonNull final IntList ids, @NonNull final List<Rectangle> boxes) {
+        // Keep the existing entries, and pack everything into a new tree
+        final List<Entry> entries = new ArrayList<>();
+        collectLeafEntries(root, entries);
+        for (int i = 0; i < ids.size(); i++) {
+            entries.add(Entry.of(ids.get(i), boxes.get(i)));
+        }
+        packTree(entries);
+    }
+
+    private void packTree(final List<Entry> entries) {
+        if (entries.isEmpty()) {
+            this.root = new Node(true, owner);
+            return;
+        }
+        List<Node> level = pack(entries, true);
+        while (level.size() > 1) {
+            final List<Entry> parents = new ArrayList<>(level.size());
+            for (final Node node : level) {
+                parents.add(Entry.of(node));
+            }
+            level = pack(parents, false);
+        }
+        this.root = level.get(0);
+    }
+
+    /**
+     * Best-first search for the entry with the closest bounding box.
+     * Leaf entries hold an ID, and the others a child node
+     */
+    @Override
+    public int nearest(@NonNull final Vector2 v2) {
+        final int x = v2.getX(), y = v2.getY();
+        final EntryQueue queue = new EntryQueue();
+        queue.addAll(root, x, y);
+        while (!queue.isEmpty()) {
+            final Entry next = queue.poll();
+            if (next.child == null) {
+                return next.id;
+            }
+            queue.addAll(next.child, x, y);
+        }
+        return -1;
+    }
+
+    private boolean visit(final Node node, final int x, final int y, final IntPredicate visitor) {
+        for (final Entry entry : node.entries) {
+            if (!entry.contains(x, y)) {
+                continue;
+            }
+            if (node.leaf) {
+                if (!visitor.test(entry.id)) {
+                    return false;
+                }
+            } else if (!visit(entry.child, x, y, visitor)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void collect(final Node node, final int minX, final int minY, final int maxX, final int maxY,
+                         final IntList out) {
+        for (final Entry entry : node.entries) {
+            if (!entry.overlaps(minX, minY, maxX, maxY)) {
+                continue;
+            }
+            if (node.leaf) {
+                out.add(entry.id);
+            } else {
+                collect(entry.child, minX, minY, maxX, maxY, out);
+            }
+        }
+    }
+
+    private List<Node> pack(final List<Entry> entries, final boolean leaf) {
+        final int nodeCount = (entries.size() + MAX_ENTRIES - 1) / MAX_ENTRIES;
+        final int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+        final int sliceSize = sliceCount * MAX_ENTRIES;
+
+        entries.sort(Comparator.comparingLong(Entry::centerX));
+        final List<Node> nodes = new ArrayList<>(nodeCount);
+        for (int sliceStart = 0; sliceStart < entries.size(); sliceStart += sliceSize) {
+            final List<Entry> slice = entries.subList(sliceStart, Math.min(entries.size(), sliceStart + sliceSize));
+            slice.sort(Comparator.comparingLong(Entry::centerY));
+            for (int nodeStart = 0; nodeStart < slice.size(); nodeStart += MAX_ENTRIES) {
+                final Node node = new Node(leaf, owner);
+                node.entries.addAll(slice.subList(nodeStart, Math.min(slice.size(), nodeStart + MAX_ENTRIES)));
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    private void insertEntry(final Entry entry) {
+        final Node root = owned(this.root);
+        final Node sibling = insert(root, entry);
+        if (sibling == null) {
+            this.root = root;
+            return;
+        }
+        final Node newRoot = new Node(false, owner);
+        newRoot.entries.add(Entry.of(root));
+        newRoot.entries.add(Entry.of(sibling));
+        this.root = newRoot;
+    }
+
+    /**
+     * Insert an entry below a node that this tree owns, splitting
+     * overfull nodes and updating the bounding boxes on the way back
+     *
+     * @return The node that the given node was split into, or null
+     */
+    private Node insert(final Node node, final Entry entry) {
+        if (node.leaf) {
+            node.entries.add(entry);
+        } else {
+            final int index = chooseSubtree(node, entry);
+            final Node child = owned(node.entries.get(index).child);
+            final Node sibling = insert(child, entry);
+            node.entries.set(index, Entry.of(child));
+            if (sibling != null) {
+                node.entries.add(Entry.of(sibling));
+            }
+        }
+        return node.entries.size() > MAX_ENTRIES ? split(node) : null;
+    }
+
+    private int chooseSubtree(final Node node, final Entry entry) {
+        int best = 0;
+        long bestEnlargement = Long.MAX_VALUE, bestArea = Long.MAX_VALUE;
+        for (int i = 0; i < node.entries.size(); i++) {
+            final Entry candidate = node.entries.get(i);
+            final long area = candidate.area();
+            final long enlargement = candidate.unionArea(entry) - area;
+            if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea)) {
+                best = i;
+                bestEnlargement = enlargement;
+                bestArea = area;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Get a node that this tree may modify, which is
+     * a copy of the node if another tree owns it
+     */
+    private Node owned(final Node node) {
+        if (node.owner == owner) {
+            return node;
+        }
+        final Node copy = new Node(node.leaf, owner);
+        copy.entries.addAll(node.entries);
+        return copy;
+    }
+
+    private Node split(final Node node) {
+        final List<Entry> entries = new ArrayList<>(node.entries);
+        node.entries.clear();
+        final Node sibling = new Node(node.leaf, owner);
+
+        // Pick the two seeds that would waste the most area together
+        int seedA = 0, seedB = 1;
+        long worst = Long.MIN_VALUE;
+        for (int i = 0; i < entries.size(); i++) {
+            for (int j = i + 1; j < entries.size(); j++) {
+                final long waste = entries.get(i).unionArea(entries.get(j))
+                        - entries.get(i).area() - entries.get(j).area();
+                if (waste > worst) {
+                    worst = waste;
+                    seedA = i;
+                    seedB = j;
+                }
+            }
+        }
+        final Entry a = entries.get(seedA), b = entries.get(seedB);
+        entries.remove(seedB);
+        entries.remove(seedA);
+        node.entries.add(a);
+        sibling.entries.add(b);
+        Entry boundsA = a.copy(), boundsB = b.copy();
+
+        while (!entries.isEmpty()) {
+            // Make sure that both nodes end up with the minimum amount of entries
+            if (node.entries.size() + entries.size() == MIN_ENTRIES) {
+                node.entries.addAll(entries);
+                break;
+            }
+            if (sibling.entries.size() + entries.size() == MIN_ENTRIES) {
+                sibling.entries.addAll(entries);
+                break;
+            }
+            // Pick the entry with the strongest preference for one of the groups
+            int next = 0;
+            long bestDifference = -1, growthA = 0, growthB = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                final long dA = boundsA.unionArea(entries.get(i)) - boundsA.area();
+                final long dB = boundsB.unionArea(entries.get(i)) - boundsB.area();
+                if (Math.abs(dA - dB) > bestDifference) {
+                    bestDifference = Math.abs(dA - dB);
+                    next = i;
+                    growthA = dA;
+                    growthB = dB;
+                }
+            }
+            final Entry entry = entries.remove(next);
+            final boolean toA = growthA < growthB || (growthA == growthB && (boundsA.area() < boundsB.area()
+                    || (boundsA.area() == boundsB.area() && node.entries.size() <= sibling.entries.size())));
+            if (toA) {
+                node.entries.add(entry);
+                boundsA.include(entry);
+            } else {
+                sibling.entries.add(entry);
+                boundsB.include(entry);
+            }
+        }
+        return sibling;
+    }
+
+    /**
+     * Remove an entry below a node. Nodes are only copied once the
+     * entry has been found, on the way back up. Underfull nodes are
+     * dropped, and their entries are added to the orphans
+     *
+     * @return The node without the entry, or null if it wasn't found
+     */
+    private Node remove(final Node node, final int id, final Rectangle box, final List<Entry> orphans) {
+        if (node.leaf) {
+            final int index = node.indexOf(id);
+            if (index == -1) {
+                return null;
+            }
+            final Node copy = owned(node);
+            copy.entries.remove(index);
+            return copy;
+        }
+        for (int i = 0; i < node.entries.size(); i++) {
+            final Entry entry = node.entries.get(i);
+            if (!entry.contains(box)) {
+                continue;
+            }
+            final Node child = remove(entry.child, id, box, orphans);
+            if (child == null) {
+                continue;
+            }
+            final Node copy = owned(node);
+            if (child.entries.size() < MIN_ENTRIES) {
+                copy.entries.remove(i);
+                collectLeafEntries(child, orphans);
+            } else {
+                copy.entries.set(i, Entry.of(child));
+            }
+            return copy;
+        }
+        return null;
+    }
+
+    private void collectLeafEntries(final Node node, final List<Entry> out) {
+        for (final Entry entry : node.entries) {
+            if (node.leaf) {
+                out.add(entry);
+            } else {
+                collectLeafEntries(entry.child, out);
+            }
+        }
+    }
+
+    /**
+     * Binary min-heap of entries, keyed by their distance to a point
+     */
+    private static final class EntryQueue {
+
+        private long[] distances = new long[MAX_ENTRIES * 4];
+        private Entry[] entries = new Entry[MAX_ENTRIES * 4];
+        private int size;
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        private void addAll(final Node node, final int x, final int y) {
+            for (final Entry entry : node.entries) {
+                add(entry, RegionIndex.distanceSquared(entry.minX, entry.minY, entry.maxX, entry.maxY, x, y));
+            }
+        }
+
+        private void add(final Entry entry, final long distance) {
+            if (size == entries.length) {
+                distances = Arrays.copyOf(distances, size * 2);
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            int slot = size++;
+            while (slot > 0) {
+                final int parent = (slot - 1) >>> 1;
+                if (distances[parent] <= distance) {
+                    break;
+                }
+                distances[slot] = distances[parent];
+                entries[slot] = entries[parent];
+                slot = parent;
+            }
+            distances[slot] = distance;
+            entries[slot] = entry;
+        }
+
+        private Entry poll() {
+            final Entry head = entries[0];
+            final long distance = distances[--size];
+            final Entry entry = entries[size];
+            entries[size] = null;
+            int slot = 0;
+            while (true) {
+                int child = slot * 2 + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && distances[child + 1] < distances[child]) {
+                    child++;
+                }
+                if (distances[child] >= distance) {
+                    break;
+                }
+                distances[slot] = distances[child];
+                entries[slot] = entries[child];
+                slot = child;
+            }
+            if (size > 0) {
+                distances[slot] = distance;
+                entries[slot] = entry;
+            }
+            return head;
+        }
+    }
+
+    private static final class Node {
+
+        private final boolean leaf;
+        private final Object owner;
+        // Entries are never modified once they're in a node, so nodes can share them
+        private final List<Entry> entries = new ArrayList<>(MAX_ENTRIES + 1);
+
+        private Node(final boolean leaf, final Object owner) {
+            this.leaf = leaf;
+            this.owner = owner;
+        }
+
+        private int indexOf(final int id) {
+            for (int i = 0; i < entries.size(); i++) {
+                if (entries.get(i).id == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static final class Entry {
+
+        private int minX, minY, maxX, maxY;
+        private int id;
+        private Node child;
+
+        private static Entry of(final int id, final Rectangle box) {
+            final Entry entry = new Entry();
+            entry.id = id;
+            entry.minX = box.getMin().getX();
+            entry.minY = box.getMin().getY();
+            entry.maxX = box.getMax().getX();
+            entry.maxY = box.getMax().getY();
+            return entry;
+        }
+
+        private static Entry of(final Node child) {
+            final Entry entry = new Entry();
+            entry.child = child;
+            entry.recalculate();
+            return entry;
+        }
+
+        private void recalculate() {
+            minX = minY = Integer.MAX_VALUE;
+            maxX = maxY = Integer.MIN_VALUE;
+            for (final Entry entry : child.entries) {
+                include(entry);
+            }
+        }
+
+        private void include(final Entry entry) {
+            minX = Math.min(minX, entry.minX);
+            minY = Math.min(minY, entry.minY);
+            maxX = Math.max(maxX, entry.maxX);
+            maxY = Math.max(maxY, entry.maxY);
+        }
+
+        private Entry copy() {
+            final Entry entry = new Entry();
+            entry.minX = minX;
+            entry.minY = minY;
+            entry.maxX = maxX;
+            entry.maxY = maxY;
+            return entry;
+        }
+
+        private boolean contains(final int x, final int y) {
+            return x >= minX && x <= maxX && y >= minY && y <= maxY;
+        }
+
+        private boolean contains(final Rectangle box) {
+            return box.getMin().getX() >= minX && box.getMax().getX() <= maxX
+                    && box.getMin().getY() >= minY && box.getMax().getY() <= maxY;
+        }
+
+        private boolean overlaps(final int minX, final int minY, final int maxX, final int maxY) {
+            return minX <= this.maxX && maxX >= this.minX && minY <= this.maxY && maxY >= this.minY;
+        }
+
+        private long area() {
+            return ((long) maxX - minX + 1) * ((long) maxY - minY + 1);
+        }
+
+        private long unionArea(final Entry entry) {
+            return ((long) Math.max(maxX, entry.maxX) - Math.min(minX, entry.minX) + 1)
+                    * ((long) Math.max(maxY, entry.maxY) - Math.min(minY, entry.minY) + 1);
+        }
+
+        private long centerX() {
+            return (long) minX + maxX;
+        }
+
+        private long centerY() {
+            return (long) minY + maxY;
+        }
+    }
+}
@@ -34,17 +34,21 @@ public class Rectangle {
     }
 
     public boolean isInside(@NonNull final Vector2 v2) {
-        return v2.getX() >= min.getX() && v2.getX() <= max.getX()
-                && v2.getY() >= min.getY() && v2.getY() <= max.getY();
+        return isInside(v2.getX(), v2.getY());
+    }
+
+    public boolean isInside(final int x, final int y) {
+        return x >= min.getX() && x <= max.getX()
+                && y >= min.getY() && y <= max.getY();
     }
 
     public boolean overlaps(@NonNull final Rectangle re2) {
-        Vector2 l1 = new Vector2(getMin().getX(), getMax().getY());
-        Vector2 r1 = new Vector2(getMax().getX(), getMin().getY());
-        Vector2 l2 = new Vector2(re2.getMin().getX(), re2.getMax().getY());
-        Vector2 r2 = new Vector2(re2.getMax().getX(), re2.getMin().getY());
-        return !(l1.getX() > r2.getX() || l2.getX() > r1.getX()) &&
-                !(l1.getY() < r2.getY() || l2.getY() < r1.getY());
+        return overlaps(re2.getMin().getX(), re2.getMin().getY(), re2.getMax().getX(), re2.getMax().getY());
+    }
+
+    public boolean overlaps(final int minX, final int minY, final int maxX, final int maxY) {
+        return minX <= max.getX() && maxX >= min.getX()
+                && minY <= max.getY() && maxY >= min.getY();
     }
 
     public List<Vector2> getOutline() {
@@ -0,0 +1,128 @@
+package com.intellectualsites.rectangular.core;
+
+import com.intellectualsites.rectangular.vector.Vector2;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Merges the rectangles of a region into fewer
+ * rectangles, without changing the area they cover
+ *
+ * @author Citymonstret
+ */
+@UtilityClass
+public class RectangleCoalescer {
+
+    /**
+     * Drop rectangles that are inside of other rectangles, and
+     * merge rectangles that share an entire edge (or overlap
+     * along it) until nothing more can be merged
+     *
+     * @param rectangles Rectangles to merge
+     * @return The merged rectangles, or the same array if nothing could be merged.
+     * Rectangles that weren't merged keep their identity
+     */
+    public static Rectangle[] coalesce(@NonNull final Rectangle[] rectangles) {
+        if (rectangles.length < 2) {
+            return rectangles;
+        }
+        final List<Entry> entries = new ArrayList<>(rectangles.length);
+        for (final Rectangle rectangle : rectangles) {
+            entries.add(new Entry(rectangle));
+        }
+
+        boolean changed = removeContained(entries);
+        boolean merged;
+        do {
+            merged = mergePass(entries, true) | mergePass(entries, false);
+            changed |= merged;
+        } while (merged);
+
+        if (!changed) {
+            return rectangles;
+        }
+        final Rectangle[] result = new Rectangle[entries.size()];
+        for (int i = 0; i < result.length; i++) {
+            final Entry entry = entries.get(i);
+            result[i] = entry.source != null ? entry.source
+                    : new Rectangle(entry.id, new Vector2(entry.minX, entry.minY), new Vector2(entry.maxX, entry.maxY));
+        }
+        return result;
+    }
+
+    private static boolean removeContained(final List<Entry> entries) {
+        boolean removed = false;
+        for (final Entry outer : entries) {
+            if (outer.removed) {
+                continue;
+            }
+            for (final Entry inner : entries) {
+                if (inner != outer && !inner.removed && outer.contains(inner)) {
+                    inner.removed = true;
+                    removed = true;
+                }
+            }
+        }
+        entries.removeIf(entry -> entry.removed);
+        return removed;
+    }
+
+    /**
+     * Merge rectangles that span the same rows (horizontal) or the
+     * same columns (vertical) and touch or overlap along that span
+     */
+    private static boolean mergePass(final List<Entry> entries, final boolean horizontal) {
+        if (horizontal) {
+            entries.sort(Comparator.comparingInt((Entry e) -> e.minY).thenComparingInt(e -> e.maxY)
+                    .thenComparingInt(e -> e.minX));
+        } else {
+            entries.sort(Comparator.comparingInt((Entry e) -> e.minX).thenComparingInt(e -> e.maxX)
+                    .thenComparingInt(e -> e.minY));
+        }
+        final List<Entry> result = new ArrayList<>(entries.size());
+        Entry previous = null;
+        for (final Entry entry : entries) {
+            if (previous != null && horizontal && previous.minY == entry.minY && previous.maxY == entry.maxY
+                    && entry.minX <= (long) previous.maxX + 1) {
+                previous.maxX = Math.max(previous.maxX, entry.maxX);
+                previous.source = null;
+            } else if (previous != null && !horizontal && previous.minX == entry.minX && previous.maxX == entry.maxX
+                    && entry.minY <= (long) previous.maxY + 1) {
+                previous.maxY = Math.max(previous.maxY, entry.maxY);
+                previous.source = null;
+            } else {
+                result.add(entry);
+                previous = entry;
+            }
+        }
+        final boolean merged = result.size() != entries.size();
+        entries.clear();
+        entries.addAll(result);
+        return merged;
+    }
+
+    private static final class Entry {
+
+        private int minX, minY, maxX, maxY;
+        private final int id;
+        private Rectangle source;
+        private boolean removed;
+
+        private Entry(final Rectangle rectangle) {
+            this.minX = rectangle.getMin().getX();
+            this.minY = rectangle.getMin().getY();
+            this.maxX = rectangle.getMax().getX();
+            this.maxY = rectangle.getMax().getY();
+            this.id = rectangle.getId();
+            this.source = rectangle;
+        }
+
+        private boolean contains(final Entry entry) {
+            return entry.minX >= minX && entry.maxX <= maxX && entry.minY >= minY && entry.maxY <= maxY;
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package com.intellectualsites.rectangular.core;
+
+import com.intellectualsites.rectangular.util.IntList;
+import com.intellectualsites.rectangular.vector.Vector2;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Off-heap storage for compiled regions. Every region gets a slice
+ * of fixed width records, outside of the Java heap: first its
+ * bounding box, then its rectangles sorted by minX, each with the
+ * largest maxX up to and including it. A rectangle takes 20 bytes,
+ * instead of a Rectangle object and two Vector2 objects
+ * <p>
+ * The buffer is either direct memory, or a memory mapped scratch
+ * file. Slices are allocated and freed under a lock, and reads go
+ * straight to the buffer
+ * <p>
+ * Reads happen between {@link #enter()} and {@link #exit(long)}. A freed
+ * slice is only reused once every read that started before it was freed
+ * has ended, which is tracked with a global epoch: a slice freed in epoch
+ * e can be reused in epoch e + 2, and the epoch only moves on once no
+ * read is left in the epoch before the current one
+ *
+ * @author Citymonstret
+ */
+public final class RectangleStore {
+
+    private static final int RECORD_INTS = 5;
+    private static final int RECORD_BYTES = RECORD_INTS * 4;
+    private static final int MAX_RECORDS = Integer.MAX_VALUE / RECORD_BYTES;
+
+    private static final int MIN_X = 0, MIN_Y = 4, MAX_X = 8, MAX_Y = 12, PREFIX_MAX_X = 16;
+
+    // Shared by all stores, so a read doesn't have to know which store it reads
+    private static final AtomicLong epoch = new AtomicLong();
+
+    // Reads in progress, by the parity of the epoch they started in
+    private static final LongAdder[] readers = new LongAdder[] { new LongAdder(), new LongAdder() };
+
+    /**
+     * Store that compiled regions are moved to,
+     * null keeps them on the heap
+     */
+    @Getter
+    @Setter
+    private static RectangleStore defaultStore;
+
+    private final FileChannel channel;
+    private final File file;
+
+    private volatile ByteBuffer buffer;
+
+    /**
+     * Amount of records that fit in the buffer
+     */
+    @Getter
+    private int capacity;
+
+    /**
+     * End of the last slice in use, freed records
+     * below this are kept in the free lists
+     */
+    @Getter
+    private int highWaterMark;
+
+    /**
+     * Records in use
+     */
+    @Getter
+    private int usedRecords;
+
+    // Free slices, by record count and by offset. Adjacent free slices are merged
+    private final TreeMap<Integer, IntList> freeSlices = new TreeMap<>();
+    private final TreeMap<Integer, Integer> freeOffsets = new TreeMap<>();
+
+    // Freed slices that may still be read, as {offset, records, epoch freed}
+    private final ArrayDeque<long[]> retiredSlices = new ArrayDeque<>();
+
+    private RectangleStore(final FileChannel channel, final File file, final int capacity) throws IOException {
+        this.channel = channel;
+        this.file = file;
+        this.capacity = Math.max(16, capacity);
+        this.buffer = createBuffer(this.capacity, null);
+    }
+
+    /**
+     * Create a store in direct memory
+     *
+     * @param initialRecords Amount of records to make room for
+     * @return The store
+     */
+    public static RectangleStore direct(final int initialRecords) {
+        try {
+            return new RectangleStore(null, null, initialRecords);
+        } catch (final IOException e) {
+            throw new IllegalStateException(e); // Only mapping files throws
+        }
+    }
+
+    /**
+     * Create a store in a memory mapped file, which lets the operating
+     * system page it out. The file is scratch space, and is deleted
+     * when the store is closed
+     *
+     * @param file Scratch file, any contents are discarded
+     * @param initialRecords Amount of records to make room for
+     * @return The store
+     * @throws IOException If the file couldn't be mapped
+     */
+    public static RectangleStore mapped(@NonNull final File file, final int initialRecords) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new RectangleStore(channel, file, initialRecords);
+    }
+
+    /**
+     * Start reading slices. Every slice that is reachable from a region
+     * after this call stays readable until the matching {@link #exit(long)}
+     *
+     * @return Token to pass to {@link #exit(long)}
+     */
+    public static long enter() {
+        while (true) {
+            final long current = epoch.get();
+            final LongAdder counter = readers[(int) (current & 1)];
+            counter.increment();
+            if (epoch.get() == current) {
+                return current;
+            }
+            // The epoch moved on before the read was counted, count it in the new one
+            counter.decrement();
+        }
+    }
+
+    /**
+     * Stop reading slices
+     *
+     * @param token Token returned by {@link #enter()}
+     */
+    public static void exit(final long token) {
+        readers[(int) (token & 1)].decrement();
+    }
+
+    /**
+     * Move on to the next epoch, unless reads
+     * from the previous epoch are still going
+     */
+    private static void tryAdvance() {
+        final long current = epoch.get();
+        // The previous epoch has the same parity as the next one
+        if (readers[(int) ((current + 1) & 1)].sum() == 0) {
+            epoch.compareAndSet(current, current + 1);
+        }
+    }
+
+    private ByteBuffer createBuffer(final int records, final ByteBuffer old) throws IOException {
+        final ByteBuffer created;
+        if (channel != null) {
+            // A larger mapping of the same file already has the old contents
+            created = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) records * RECORD_BYTES);
+        } else {
+            created = ByteBuffer.allocateDirect(records * RECORD_BYTES);
+            if (old != null) {
+                final ByteBuffer source = old.duplicate();
+                source.clear().limit(highWaterMark * RECORD_BYTES);
+                created.put(source);
+            }
+        }
+        return created.order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Store a compiled region
+     *
+     * @param boundingBox Bounding box of the region
+     * @param minX Rectangle min x values, sorted ascending
+     * @param minY Rectangle min y values, in the same order
+     * @param maxX Rectangle max x values, in the same order
+     * @param maxY Rectangle max y values, in the same order
+     * @return Offset of the slice, which is rectangle count + 1 records long
+     */
+    public synchronized int store(@NonNull final Rectangle boundingBox, final int[] minX, final int[] minY,
+                                  final int[] maxX, final int[] maxY) {
+        final int offset = allocate(minX.length + 1);
+        final ByteBuffer buffer = this.buffer;
+        put(buffer, offset, boundingBox.getMin().getX(), boundingBox.getMin().getY(),
+                boundingBox.getMax().getX(), boundingBox.getMax().getY(), boundingBox.getMax().getX());
+        int prefixMaxX = Integer.MIN_VALUE;
+        for (int i = 0; i < minX.length; i++) {
+            prefixMaxX = Math.max(prefixMaxX, maxX[i]);
+            put(buffer, offset + 1 + i, minX[i], minY[i], maxX[i], maxY[i], prefixMaxX);
+        }
+        return offset;
+    }
+
+    /**
+     * Free a slice, so that it can be used for another region
+     *
+     * @param offset Slice offset
+     * @param count Amount of rectangles in the slice
+     */
+    public synchronized void free(final int offset, final int count) {
+        retiredSlices.add(new long[] { offset, count + 1, epoch.get() });
+        usedRecords -= count + 1;
+        reclaim();
+    }
+
+    /**
+     * Release the retired slices that no read can reach anymore
+     */
+    private void reclaim() {
+        // Moving on twice is enough for every retired slice
+        for (int i = 0; i < 2 && !retiredSlices.isEmpty() && retiredSlices.peek()[2] + 2 > epoch.get(); i++) {
+            tryAdvance();
+        }
+        while (!retiredSlices.isEmpty() && retiredSlices.peek()[2] + 2 <= epoch.get()) {
+            final long[] retired = retiredSlices.poll();
+            release((int) retired[0], (int) retired[1]);
+        }
+    }
+
+    private void put(final ByteBuffer buffer, final int record, final int minX, final int minY,
+                     final int maxX, final int maxY, final int prefixMaxX) {
+        final int position = record * RECORD_BYTES;
+        buffer.putInt(position + MIN_X, minX);
+        buffer.putInt(position + MIN_Y, minY);
+        buffer.putInt(position + MAX_X, maxX);
+        buffer.putInt(position + MAX_Y, maxY);
+        buffer.putInt(position + PREFIX_MAX_X, prefixMaxX);
+    }
+
+    private int allocate(final int records) {
+        usedRecords += records;
+        reclaim();
+        // Reuse the smallest free slice that fits, and give back what's left of it
+        final Map.Entry<Integer, IntList> free = freeSlices.ceilingEntry(records);
+        if (free != null) {
+            final int length = free.getKey();
+            final int offset = free.getValue().get(free.getValue().size() - 1);
+            removeFree(offset, length);
+            if (length > records) {
+                release(offset + records, length - records);
+            }
+            return offset;
+        }
+        if ((long) highWaterMark + records > MAX_RECORDS) {
+            throw new IllegalStateException("The rectangle store is full");
+        }
+        if (highWaterMark + records > capacity) {
+            final int grown = (int) Math.min(MAX_RECORDS, Math.max((long) capacity * 2, (long) highWaterMark + records));
+            try {
+                this.buffer = createBuffer(grown, this.buffer);
+            } catch (final IOException e) {
+                throw new IllegalStateException("Failed to grow the rectangle store", e);
+            }
+            this.capacity = grown;
+        }
+        final int offset = highWaterMark;
+        highWaterMark += records;
+        return offset;
+    }
+
+    /**
+     * Add a slice to the free lists, merged with the free slices next to it
+     */
+    private void release(int offset, int records) {
+        final Map.Entry<Integer, Integer> before = freeOffsets.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            removeFree(before.getKey(), before.getValue());
+            offset = before.getKey();
+            records += before.getValue();
+        }
+        final Integer after = freeOffsets.get(offset + records);
+        if (after != null) {
+            removeFree(offset + records, after);
+            records += after;
+        }
+        if (offset + records == highWaterMark) {
+            // Nothing in use after it, so the slice is simply given back
+            highWaterMark = offset;
+            return;
+        }
+        freeSlices.computeIfAbsent(records, key -> new IntList()).add(offset);
+        freeOffsets.put(offset, records);
+    }
+
+    private void removeFree(final int offset, final int records) {
+        final IntList offsets = freeSlices.get(records);
+        offsets.removeValue(offset);
+        if (offsets.isEmpty()) {
+            freeSlices.remove(records);
+        }
+        freeOffsets.remove(offset);
+    }
+
+    /**
+     * Find the rectangle that contains a point
+     *
+     * @param offset Slice offset
+     * @param count Amount of rectangles in the slice
+     * @param x X coordinate
+     * @param y Y coordinate
+     * @return Index of the rectangle in sorted order, or -1
+     */
+    public int findRectangle(final int offset, final int count, final int x, final int y) {
+        final ByteBuffer buffer = this.buffer;
+        final int box = offset * RECORD_BYTES;
+        if (x < buffer.getInt(box + MIN_X) || x > buffer.getInt(box + MAX_X)
+                || y < buffer.getInt(box + MIN_Y) || y > buffer.getInt(box + MAX_Y)) {
+            return -1;
+        }
+        // Walk backwards from the last rectangle starting at or before x,
+        // until no earlier rectangle reaches as far as x
+        for (int i = countStartingBefore(buffer, offset, count, x) - 1; i >= 0; i--) {
+            final int position = (offset + 1 + i) * RECORD_BYTES;
+            if (buffer.getInt(position + PREFIX_MAX_X) < x) {
+                break;
+            }
+            if (x <= buffer.getInt(position + MAX_X) && y >= buffer.getInt(position + MIN_Y)
+                    && y <= buffer.getInt(position + MAX_Y)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Check if any rectangle in a slice overlaps an area
+     *
+     * @param offset Slice offset
+     * @param count Amount of rectangles in the slice
+     * @return True if they overlap
+     */
+    public boolean overlaps(final int offset, final int count, final int minX, final int minY,
+                            final int maxX, final int maxY) {
+        final ByteBuffer buffer = this.buffer;
+        for (int i = countStartingBefore(buffer, offset, count, maxX) - 1; i >= 0; i--) {
+            final int position = (offset + 1 + i) * RECORD_BYTES;
+            if (buffer.getInt(position + PREFIX_MAX_X) < minX) {
+                break;
+            }
+            if (minX <= buffer.getInt(position + MAX_X) && minY <= buffer.getInt(position + MAX_Y)
+                    && maxY >= buffer.getInt(position + MIN_Y)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int countStartingBefore(final ByteBuffer buffer, final int offset, final int count, final int x) {
+        int low = 0, high = count;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (buffer.getInt((offset + 1 + mid) * RECORD_BYTES + MIN_X) <= x) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Read the rectangles of a slice back into objects
+     *
+     * @param offset Slice offset
+     * @param count Amount of rectangles in the slice
+     * @param regionID ID that the rectangles are given
+     * @return The rectangles, sorted by minX
+     */
+    public Rectangle[] getRectangles(final int offset, final int count, final int regionID) {
+        final ByteBuffer buffer = this.buffer;
+        final Rectangle[] rectangles = new Rectangle[count];
+        for (int i = 0; i < count; i++) {
+            final int position = (offset + 1 + i) * RECORD_BYTES;
+            rectangles[i] = new Rectangle(regionID,
+                    new Vector2(buffer.getInt(position + MIN_X), buffer.getInt(position + MIN_Y)),
+                    new Vector2(buffer.getInt(position + MAX_X), buffer.getInt(position + MAX_Y)));
+        }
+        return rectangles;
+    }
+
+    /**
+     * Size of the buffer, in bytes
+     *
+     * @return Size
+     */
+    public long getSize() {
+        return (long) capacity * RECORD_BYTES;
+    }
+
+    /**
+     * Release the scratch file. The buffer itself
+     * is released once it's garbage collected
+     */
+    public void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+                Files.deleteIfExists(file.toPath());
+            } catch (final IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.intellectualsites.rectangular.core;
+
+import com.google.common.collect.ImmutableList;
+import com.intellectualsites.rectangular.util.IntList;
+import com.intellectualsites.rectangular.util.LongHashMap;
+import com.intellectualsites.rectangular.vector.PackedVector2;
+import com.intellectualsites.rectangular.vector.Vector2;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.TreeSet;
+
+/**
+ * The outline of the union of a set of rectangles, computed
+ * with integer sweep lines. The outline is a set of closed
+ * rings, where every edge has the region on its left side
+ * (so holes run the opposite way of the outer rings).
+ * <p>
+ * This only reads the rectangles it's given, so unions of
+ * different regions may be computed in parallel
+ *
+ * @author Citymonstret
+ */
+public final class RectangleUnion {
+
+    /**
+     * Every ring is a flat array of vertices: x0, y0, x1, y1...
+     */
+    @Getter
+    private final List<int[]> rings;
+
+    private RectangleUnion(final List<int[]> rings) {
+        this.rings = rings;
+    }
+
+    public static RectangleUnion of(@NonNull final Rectangle[] rectangles) {
+        // Rectangles without any area don't add to the outline
+        // The last element is the index of the box, which keeps equal spans apart in the sweep
+        final List<int[]> boxes = new ArrayList<>(rectangles.length);
+        for (final Rectangle rectangle : rectangles) {
+            if (rectangle.getMax().getX() > rectangle.getMin().getX()
+                    && rectangle.getMax().getY() > rectangle.getMin().getY()) {
+                boxes.add(new int[] { rectangle.getMin().getX(), rectangle.getMin().getY(),
+                        rectangle.getMax().getX(), rectangle.getMax().getY(), boxes.size() });
+            }
+        }
+        final LongHashMap<long[]> edges = new LongHashMap<>(boxes.size() * 8);
+        sweep(boxes, true, edges);
+        sweep(boxes, false, edges);
+        return new RectangleUnion(connect(edges));
+    }
+
+    /**
+     * Get all corners, ring by ring
+     *
+     * @return Corners
+     */
+    public ImmutableList<Vector2> getCorners() {
+        final ImmutableList.Builder<Vector2> builder = ImmutableList.builder();
+        for (final int[] ring : rings) {
+            for (int i = 0; i < ring.length; i += 2) {
+                builder.add(new Vector2(ring[i], ring[i + 1]));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Lazily walk every block on the outline, ring by ring. Nothing
+     * is stored, so this is cheap even for huge regions
+     *
+     * @param includeCorners Whether or not the corners should be included
+     * @param step Only every n:th block along every edge is returned, 1 returns all of them
+     * @return Iterator of packed coordinates, see {@link PackedVector2}
+     */
+    public PrimitiveIterator.OfLong outline(final boolean includeCorners, final int step) {
+        if (step < 1) {
+            throw new IllegalArgumentException("Step must be positive");
+        }
+        return new OutlineIterator(includeCorners, step);
+    }
+
+    /**
+     * Find the boundary segments on every sweep line. On a vertical line at x, the
+     * boundary is where the area just left of x differs from the area just right of it.
+     * The boxes that cross the line are kept ordered by their span, and only enter
+     * and leave at their own lines, so every line only walks the boxes crossing it
+     *
+     * @param vertical True to sweep over x (vertical edges), false to sweep over y
+     * @param edges Map from packed start point to the packed end points of the edges
+     */
+    private static void sweep(final List<int[]> boxes, final boolean vertical, final LongHashMap<long[]> edges) {
+        final int lowIndex = vertical ? 0 : 1, highIndex = vertical ? 2 : 3;
+        final int spanLow = vertical ? 1 : 0, spanHigh = vertical ? 3 : 2;
+
+        final int[][] entering = boxes.toArray(new int[boxes.size()][]);
+        final int[][] leaving = entering.clone();
+        Arrays.sort(entering, Comparator.comparingInt(box -> box[lowIndex]));
+        Arrays.sort(leaving, Comparator.comparingInt(box -> box[highIndex]));
+        final TreeSet<int[]> active = new TreeSet<>(Comparator.comparingInt((int[] box) -> box[spanLow])
+                .thenComparingInt(box -> box[4]));
+
+        final IntList before = new IntList(), after = new IntList();
+        final IntList onlyBefore = new IntList(), onlyAfter = new IntList();
+        int enter = 0, leave = 0;
+        // Every box enters before it leaves, so the last line is a leaving one
+        while (leave < leaving.length) {
+            final int line = enter < entering.length
+                    ? Math.min(entering[enter][lowIndex], leaving[leave][highIndex]) : leaving[leave][highIndex];
+            // Everything still active started before the line, and ends on or after it
+            mergeSpans(active, spanLow, spanHigh, before);
+            while (leave < leaving.length && leaving[leave][highIndex] == line) {
+                active.remove(leaving[leave++]);
+            }
+            while (enter < entering.length && entering[enter][lowIndex] == line) {
+                active.add(entering[enter++]);
+            }
+            mergeSpans(active, spanLow, spanHigh, after);
+            subtract(after, before, onlyAfter);
+            subtract(before, after, onlyBefore);
+
+            // The region is on the left side of every edge
+            for (int i = 0; i < onlyAfter.size(); i += 2) {
+                final int low = onlyAfter.get(i), high = onlyAfter.get(i + 1);
+                if (vertical) {
+                    addEdge(edges, line, high, line, low); // Region to the right, go down
+                } else {
+                    addEdge(edges, low, line, high, line); // Region above, go right
+                }
+            }
+            for (int i = 0; i < onlyBefore.size(); i += 2) {
+                final int low = onlyBefore.get(i), high = onlyBefore.get(i + 1);
+                if (vertical) {
+                    addEdge(edges, line, low, line, high); // Region to the left, go up
+                } else {
+                    addEdge(edges, high, line, low, line); // Region below, go left
+                }
+            }
+        }
+    }
+
+    private static void addEdge(final LongHashMap<long[]> edges, final int x1, final int y1,
+                                final int x2, final int y2) {
+        final long start = PackedVector2.pack(x1, y1), end = PackedVector2.pack(x2, y2);
+        final long[] ends = edges.get(start);
+        if (ends == null) {
+            edges.put(start, new long[] { end });
+        } else {
+            final long[] extended = Arrays.copyOf(ends, ends.length + 1);
+            extended[ends.length] = end;
+            edges.put(start, extended);
+        }
+    }
+
+    /**
+     * Merge the spans of boxes, ordered by their low end, into
+     * a flat list of closed intervals (low, high, low, high...)
+     */
+    private static void mergeSpans(final Iterable<int[]> boxes, final int spanLow, final int spanHigh,
+                                   final IntList out) {
+        out.clear();
+        int low = 0, high = 0;
+        boolean open = false;
+        for (final int[] box : boxes) {
+            if (open && box[spanLow] <= high) {
+                high = Math.max(high, box[spanHigh]);
+                continue;
+            }
+            if (open) {
+                out.add(low);
+                out.add(high);
+            }
+            low = box[spanLow];
+            high = box[spanHigh];
+            open = true;
+        }
+        if (open) {
+            out.add(low);
+            out.add(high);
+        }
+    }
+
+    /**
+     * Write the parts of a that aren't covered by b into out,
+     * both inputs have to be merged interval lists
+     */
+    private static void subtract(final IntList a, final IntList b, final IntList out) {
+        out.clear();
+        int j = 0;
+        for (int i = 0; i < a.size(); i += 2) {
+            int low = a.get(i);
+            final int high = a.get(i + 1);
+            while (j < b.size() && b.get(j + 1) <= low) {
+                j += 2;
+            }
+            int k = j;
+            while (low < high && k < b.size() && b.get(k) < high) {
+                if (b.get(k) > low) {
+                    out.add(low);
+                    out.add(b.get(k));
+                }
+                low = Math.max(low, b.get(k + 1));
+                k += 2;
+            }
+            if (low < high) {
+                out.add(low);
+                out.add(high);
+            }
+        }
+    }
+
+    /**
+     * Walk the edges into closed rings. Where several rings touch
+     * in one point, the sharpest left turn is taken, which keeps
+     * the rings apart
+     */
+    private static List<int[]> connect(final LongHashMap<long[]> edges) {
+        final List<int[]> rings = new ArrayList<>();
+        final long[] starts = new long[edges.size()];
+        final int[] count = new int[1];
+        edges.forEach((start, ends) -> starts[count[0]++] = start);
+        Arrays.sort(starts);
+
+        for (final long ringStart : starts) {
+            while (edges.containsKey(ringStart)) {
+                final IntList ring = new IntList();
+                long current = ringStart;
+                int directionX = 0, directionY = 0;
+                do {
+                    ring.add(PackedVector2.getX(current));
+                    ring.add(PackedVector2.getY(current));
+                    final long[] ends = edges.get(current);
+                    int chosen = 0, bestTurn = Integer.MIN_VALUE;
+                    for (int i = 0; i < ends.length; i++) {
+                        final int dx = Integer.signum(PackedVector2.getX(ends[i]) - PackedVector2.getX(current));
+                        final int dy = Integer.signum(PackedVector2.getY(ends[i]) - PackedVector2.getY(current));
+                        // Cross product: 1 = left turn, 0 = straight, -1 = right turn
+                        final int turn = directionX * dy - directionY * dx;
+                        if (turn > bestTurn) {
+                            bestTurn = turn;
+                            chosen = i;
+                        }
+                    }
+                    final long next = ends[chosen];
+                    if (ends.length == 1) {
+                        edges.remove(current);
+                    } else {
+                        final long[] remaining = new long[ends.length - 1];
+                        System.arraycopy(ends, 0, remaining, 0, chosen);
+                        System.arraycopy(ends, chosen + 1, remaining, chosen, ends.length - chosen - 1);
+                        edges.put(current, remaining);
+                    }
+                    directionX = Integer.signum(PackedVector2.getX(next) - PackedVector2.getX(current));
+                    directionY = Integer.signum(PackedVector2.getY(next) - PackedVector2.getY(current));
+                    current = next;
+                } while (current != ringStart);
+                rings.add(ring.toArray());
+            }
+        }
+        return rings;
+    }
+
+    private final class OutlineIterator implements PrimitiveIterator.OfLong {
+
+        private final boolean includeCorners;
+        private final int step;
+
+        private int ring, vertex;
+        // Position along the current edge, 0 being the corner
+        private int position;
+        private boolean ready;
+        private long next;
+
+        private OutlineIterator(final boolean includeCorners, final int step) {
+            this.includeCorners = includeCorners;
+            this.step = step;
+            this.position = includeCorners ? 0 : step;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!ready && ring < rings.size()) {
+                final int[] points = rings.get(ring);
+                final int x = points[vertex * 2], y = points[vertex * 2 + 1];
+                final int nextVertex = (vertex + 1) % (points.length / 2);
+                final int toX = points[nextVertex * 2], toY = points[nextVertex * 2 + 1];
+                // Edges are axis aligned, so one of the deltas is 0
+                final int length = Math.abs(toX - x) + Math.abs(toY - y);
+                if (position < length) {
+                    next = PackedVector2.pack(x + Integer.signum(toX - x) * position, y + Integer.signum(toY - y) * position);
+                    position += step;
+                    ready = true;
+                } else {
+                    position = includeCorners ? 0 : step;
+                    if (nextVertex == 0) {
+                        ring++;
+                        vertex = 0;
+                    } else {
+                        vertex = nextVertex;
+                    }
+                }
+            }
+            return ready;
+        }
+
+        @Override
+        public long nextLong() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ready = false;
+            return next;
+        }
+    }
+}
@@ -1,20 +1,35 @@
 package com.intellectualsites.rectangular.core;
 
 import com.intellectualsites.rectangular.api.objects.Region;
+import com.intellectualsites.rectangular.util.IntList;
+import com.intellectualsites.rectangular.util.LongHashMap;
 import com.intellectualsites.rectangular.vector.Vector2;
 import lombok.Getter;
+import lombok.NonNull;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.Set;
-
+import java.util.function.IntPredicate;
+
+/**
+ * A container of regions, backed by a spatial index
+ * <p>
+ * The index is never modified once it's published. Changes are made
+ * to a copy, which then replaces it, so lookups don't lock and always
+ * see a consistent index, from any thread. Changes are serialized
+ */
 public abstract class RegionContainer {
 
-    @Getter
-    private final List<Integer> regionIDs = new ArrayList<>();
+    // The bounding box that every region was indexed with, by region ID. Guarded by this
+    private final LongHashMap<Rectangle> regionBoxes = new LongHashMap<>();
 
+    /**
+     * Spatial index over the bounding boxes of the regions.
+     * This is a snapshot, and must not be modified
+     */
     @Getter
-    private final Quadrant[] containerQuadrants = new Quadrant[4];
+    private volatile RegionIndex index;
 
     @Getter
     private final int level;
@@ -22,8 +37,6 @@ public abstract class RegionContainer {
     @Getter
     private final Rectangle bounds;
 
-    private float width, height, midX, midY;
-
     public RegionContainer(final int level, final Rectangle bounds) {
         this.level = level;
         if (bounds == null) {
@@ -33,66 +46,143 @@ public abstract class RegionContainer {
         }
     }
 
-    public void compileRegionContainer() {
-        width = bounds.getMax().getX() - bounds.getMin().getX();
-        height = bounds.getMax().getY() - bounds.getMin().getY();
-
-        midX = this.bounds.getMin().getX() + (width / 2);
-        midY = this.bounds.getMin().getY() + (height / 2);
-
+    /**
+     * (Re)build the index from the container bounds, using the
+     * default {@link IndexEngine}. Any regions that are already
+     * indexed will be re-inserted
+     */
+    public synchronized void compileRegionContainer() {
+        final IntList ids = new IntList();
+        final List<Rectangle> boxes = new ArrayList<>();
+        if (index != null) {
+            index.collectAll(ids, boxes);
+        }
+        final RegionIndex index = IndexEngine.getDefaultEngine().createIndex(bounds);
+        index.bulkLoad(ids, boxes);
+        this.index = index;
+    }
 
-        // First Quadrant
-        {
-            Vector2 min = new Vector2((int) midX, (int) midY);
-            Vector2 max = this.bounds.getMax().clone();
-            Quadrant quadrant = new Quadrant(min,max);
-            this.containerQuadrants[0] = quadrant;
+    public synchronized void compileQuadrants(final Region region) {
+        final RegionIndex index = copyIndex();
+        final Rectangle previous = regionBoxes.put(region.getId(), region.getBoundingBox());
+        if (previous != null) {
+            // The bounding box might have changed, so it has to be re-inserted
+            index.remove(region.getId(), previous);
         }
-        // Second Quadrant
-        {
-            Vector2 min = new Vector2((int) midX, bounds.getMin().getY());
-            Vector2 max = new Vector2(bounds.getMax().getX(), (int) midY);
-            Quadrant quadrant = new Quadrant(min,max);
-            this.containerQuadrants[1] = quadrant;
+        index.insert(region.getId(), region.getBoundingBox());
+        this.index = index;
+    }
+
+    /**
+     * Copy the published index, so that it can be modified
+     */
+    private RegionIndex copyIndex() {
+        if (index == null) {
+            compileRegionContainer();
         }
-        // Third Quadrant
-        {
-            Vector2 min = this.bounds.getMin().clone();
-            Vector2 max = new Vector2((int) midX, (int) midY);
-            Quadrant quadrant = new Quadrant(min,max);
-            this.containerQuadrants[2] = quadrant;
+        return index.copy();
+    }
+
+    /**
+     * Remove a region from the container
+     *
+     * @param id Region ID
+     * @return True if the region was in the container
+     */
+    public synchronized boolean removeRegion(final int id) {
+        final Rectangle box = regionBoxes.remove(id);
+        if (box == null) {
+            return false;
         }
-        // Fourth Quadrant
-        {
-            Vector2 min = new Vector2(bounds.getMin().getX(), (int) midY);
-            Vector2 max = new Vector2((int) midX, bounds.getMax().getY());
-            Quadrant quadrant = new Quadrant(min,max);
-            this.containerQuadrants[3] = quadrant;
+        if (index != null) {
+            final RegionIndex index = this.index.copy();
+            index.remove(id, box);
+            this.index = index;
         }
+        return true;
     }
 
-    public void compileQuadrants(final Region region) {
-        if (regionIDs.contains(region.getId())) {
-            return;
-        }
-        for (Quadrant quadrant : containerQuadrants) {
-            if (quadrant.overlaps(region.getBoundingBox())) {
-                quadrant.getIds().add(region.getId());
+    /**
+     * Add a batch of regions, which lets the index
+     * pack them rather than inserting them one by one
+     *
+     * @param regions Regions to add
+     */
+    public synchronized void compileQuadrants(final Collection<Region> regions) {
+        final RegionIndex index = copyIndex();
+        final IntList ids = new IntList(regions.size());
+        final List<Rectangle> boxes = new ArrayList<>(regions.size());
+        for (final Region region : regions) {
+            final Rectangle previous = regionBoxes.put(region.getId(), region.getBoundingBox());
+            if (previous != null) {
+                index.remove(region.getId(), previous);
             }
+            ids.add(region.getId());
+            boxes.add(region.getBoundingBox());
+        }
+        index.bulkLoad(ids, boxes);
+        this.index = index;
+    }
+
+    /**
+     * Visit the IDs of all regions that may contain the point
+     *
+     * @param v2 Point
+     * @param visitor Visitor, return false to stop the search
+     * @return False if the search was stopped by the visitor
+     */
+    public boolean visitRegions(@NonNull final Vector2 v2, @NonNull final IntPredicate visitor) {
+        return visitRegions(v2.getX(), v2.getY(), visitor);
+    }
+
+    public boolean visitRegions(final int x, final int y, @NonNull final IntPredicate visitor) {
+        final RegionIndex index = this.index;
+        return index == null || index.visit(x, y, visitor);
+    }
+
+    /**
+     * Get the IDs of all regions whose bounding box overlaps the area
+     *
+     * @param area Area to search in
+     * @return List of region IDs, each ID is only included once
+     */
+    public IntList getRegionIDs(@NonNull final Rectangle area) {
+        final IntList ids = new IntList();
+        final RegionIndex index = this.index;
+        if (index != null) {
+            index.collect(area, ids);
         }
-        regionIDs.add(region.getId());
+        return ids;
+    }
+
+    /**
+     * Get the ID of the region whose bounding box is closest to the point
+     *
+     * @param v2 Point
+     * @return Region ID, or -1 if the container is empty
+     */
+    public int getNearestRegionID(@NonNull final Vector2 v2) {
+        final RegionIndex index = this.index;
+        return index == null ? -1 : index.nearest(v2);
     }
 
-    public void compileQuadrants(final Set<Region> regions) {
-        regions.forEach(this::compileQuadrants);
+    /**
+     * Get the IDs of all regions in the container
+     *
+     * @return A copy of the IDs
+     */
+    public synchronized IntList getRegionIDs() {
+        final IntList ids = new IntList(regionBoxes.size());
+        regionBoxes.forEach((id, box) -> ids.add((int) id));
+        return ids;
     }
 
-    public Quadrant getContainerQuadrant(Vector2 v2) {
-        return Quadrant.findQuadrant(containerQuadrants, midX, midY, v2);
+    public synchronized boolean containsRegion(final int id) {
+        return regionBoxes.containsKey(id);
     }
 
-    public boolean hasRegions() {
-        return !regionIDs.isEmpty();
+    public synchronized boolean hasRegions() {
+        return !regionBoxes.isEmpty();
     }
 
     public abstract String getContainerID();
@@ -0,0 +1,129 @@
+package com.intellectualsites.rectangular.core;
+
+import com.intellectualsites.rectangular.util.IntList;
+import com.intellectualsites.rectangular.vector.Vector2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * A spatial index over region bounding boxes,
+ * used by {@link RegionContainer} to find the
+ * regions that may contain a point or overlap
+ * an area
+ *
+ * @author Citymonstret
+ */
+public interface RegionIndex {
+
+    /**
+     * Insert an entry into the index. The ID must not be in the
+     * index already, remove it first to change its bounding box
+     *
+     * @param id Entry ID
+     * @param box Bounding box of the entry
+     */
+    void insert(int id, Rectangle box);
+
+    /**
+     * Remove an entry from the index
+     *
+     * @param id Entry ID
+     * @param box Bounding box that the entry was inserted with
+     * @return True if the entry was found
+     */
+    boolean remove(int id, Rectangle box);
+
+    /**
+     * Visit all entries whose bounding box may contain the point
+     *
+     * @param x Point X
+     * @param y Point Y
+     * @param visitor Visitor, return false to stop the search
+     * @return False if the search was stopped by the visitor
+     */
+    boolean visit(int x, int y, IntPredicate visitor);
+
+    default boolean visit(final Vector2 v2, final IntPredicate visitor) {
+        return visit(v2.getX(), v2.getY(), visitor);
+    }
+
+    /**
+     * Collect all entries whose bounding box overlaps the area,
+     * each entry will only be added once
+     *
+     * @param area Area to search in
+     * @param out List that the entries are added to
+     */
+    void collect(Rectangle area, IntList out);
+
+    /**
+     * Collect every entry in the index, along with its bounding box
+     *
+     * @param outIds List that the IDs are added to
+     * @param outBoxes List that the bounding boxes are added to
+     */
+    void collectAll(IntList outIds, List<Rectangle> outBoxes);
+
+    /**
+     * Create a copy of the index, which can be modified without
+     * affecting this one. Implementations may share any structure
+     * that neither of them will modify
+     *
+     * @return The copy
+     */
+    RegionIndex copy();
+
+    /**
+     * Insert a batch of entries. Implementations may use this
+     * to build a better index than repeated inserts would.
+     * None of the IDs may be in the index already
+     *
+     * @param ids Entry IDs
+     * @param boxes Bounding boxes, in the same order as the IDs
+     */
+    default void bulkLoad(final IntList ids, final List<Rectangle> boxes) {
+        for (int i = 0; i < ids.size(); i++) {
+            insert(ids.get(i), boxes.get(i));
+        }
+    }
+
+    /**
+     * Find the entry whose bounding box is closest to the point.
+     * The default implementation scans every entry
+     *
+     * @param v2 Point
+     * @return Entry ID, or -1 if the index is empty
+     */
+    default int nearest(final Vector2 v2) {
+        final IntList ids = new IntList();
+        final List<Rectangle> boxes = new ArrayList<>();
+        collectAll(ids, boxes);
+        int nearest = -1;
+        long nearestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < ids.size(); i++) {
+            final Rectangle box = boxes.get(i);
+            final long distance = distanceSquared(box.getMin().getX(), box.getMin().getY(),
+                    box.getMax().getX(), box.getMax().getY(), v2.getX(), v2.getY());
+            if (distance < nearestDistance) {
+                nearestDistance = distance;
+                nearest = ids.get(i);
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Get the squared distance between a point and a box,
+     * which is 0 if the point is inside of the box
+     */
+    static long distanceSquared(final int minX, final int minY, final int maxX, final int maxY,
+                                final int x, final int y) {
+        // Clamped, so that the squares can't overflow
+        final long dx = Math.min(Integer.MAX_VALUE, Math.max(0L, Math.max((long) minX - x, (long) x - maxX)));
+        final long dy = Math.min(Integer.MAX_VALUE, Math.max(0L, Math.max((long) minY - y, (long) y - maxY)));
+        return dx * dx + dy * dy;
+    }
+
+}
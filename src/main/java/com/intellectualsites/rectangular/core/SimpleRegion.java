@@ -4,29 +4,39 @@ import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.intellectualsites.rectangular.api.objects.Region;
 import com.intellectualsites.rectangular.data.RegionData;
+import com.intellectualsites.rectangular.vector.PackedVector2;
 import com.intellectualsites.rectangular.vector.Vector2;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.Setter;
-import lombok.val;
 
-import java.awt.geom.AffineTransform;
-import java.awt.geom.Area;
-import java.awt.geom.PathIterator;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.List;
+import java.util.Comparator;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class SimpleRegion extends RegionContainer implements Region {
 
+    /**
+     * Regions with at least this many rectangles get
+     * the prefix max index, see {@link Lookup#find(int, int)}
+     */
+    private static final int RECTANGLE_INDEX_THRESHOLD = 16;
+
+    private static final Rectangle[] NO_RECTANGLES = new Rectangle[0];
+
     @Getter
     private Rectangle boundingBox;
 
-    @Getter
+    // Set, but not compiled, rectangles. Also the compiled ones while they're on the heap
     private Rectangle[] rectangles;
 
-    @Getter
-    private Quadrant[] quadrants = new Quadrant[4];
+    // Only built when they're asked for, lookups don't use them
+    private volatile Quadrant[] quadrants;
 
     @Getter
     private int width, height;
@@ -40,10 +50,21 @@ public class SimpleRegion extends RegionContainer implements Region {
     @Getter
     private final String owningContainer;
 
+    // Not kept for regions in a RectangleStore, they're built whenever they're asked for
     private ImmutableList<Vector2> corners;
 
+    private RectangleUnion union;
+
+    // Everything that lookups read, replaced as a whole by compile() and release()
+    private volatile Lookup lookup = Lookup.NONE;
+
+    // The rectangles that the coverage table of the current lookup was built from
+    private Rectangle[] coveredRectangles;
+
     private boolean compiled = false;
 
+    private boolean released = false;
+
     @Setter
     @Getter
     private RegionData data;
@@ -60,7 +81,44 @@ public class SimpleRegion extends RegionContainer implements Region {
     }
 
     @Override
-    public void compile() {
+    public Rectangle[] getRectangles() {
+        // Rectangles that were set after the region was moved to the store come first
+        final Rectangle[] rectangles = this.rectangles;
+        if (rectangles != null) {
+            return rectangles;
+        }
+        final Lookup lookup = this.lookup;
+        if (lookup.store == null) {
+            return lookup.getRectangles(id);
+        }
+        final long token = RectangleStore.enter();
+        try {
+            return this.lookup.getRectangles(id);
+        } finally {
+            RectangleStore.exit(token);
+        }
+    }
+
+    @Override
+    public int getRectangleCount() {
+        final Rectangle[] rectangles = this.rectangles;
+        return rectangles != null ? rectangles.length : lookup.count;
+    }
+
+    @Override
+    public synchronized void compile() {
+        if (released) {
+            return; // Released regions stay released, and never take a slice again
+        }
+        // Merge whatever can be merged, this never changes the covered area
+        final Rectangle[] added = getRectangles();
+        this.rectangles = RectangleCoalescer.coalesce(added);
+        final RectangleStore defaultStore = RectangleStore.getDefaultStore();
+        if (defaultStore != null) {
+            // The store keeps them sorted by minX, so indices have to follow that order
+            Arrays.sort(this.rectangles, Comparator.comparingInt(rectangle -> rectangle.getMin().getX()));
+        }
+
         // Initial values are just crayyyy
         int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE,
                 maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
@@ -76,6 +134,9 @@ public class SimpleRegion extends RegionContainer implements Region {
         // Update the bounds
         this.boundingBox = new Rectangle(new Vector2(minX, minY), new Vector2(maxX, maxY));
         super.getBounds().copyFrom(this.boundingBox); // Will update the region container
+        if (getIndex() != null) {
+            compileRegionContainer(); // Sub-regions have to be re-inserted into the new bounds
+        }
 
         // Calculate the width and height
         this.width = boundingBox.getMax().getX() - boundingBox.getMin().getX();
@@ -84,118 +145,181 @@ public class SimpleRegion extends RegionContainer implements Region {
         // Calculate midpoints (for quadrants)
         this.midX = this.boundingBox.getMin().getX() + (width / 2);
         this.midY = this.boundingBox.getMin().getY() + (height / 2);
+        this.quadrants = null; // Rebuilt by getQuadrants() if needed
+
+        final Lookup previous = this.lookup;
+        if (defaultStore != null) {
+            this.lookup = Lookup.stored(boundingBox, defaultStore, rectangles);
+            // Only the rectangles are kept, and only off the heap
+            this.rectangles = null;
+            this.coveredRectangles = null;
+            this.union = null;
+            this.corners = null;
+        } else {
+            this.lookup = Lookup.onHeap(boundingBox, rectangles, compileCoverage(previous.coverage, added));
+            this.compileCorners();
+        }
+        this.compiled = true;
+        previous.free();
+    }
 
-        // First Quadrant
-        {
-            final Vector2 min = new Vector2((int) midX, (int) midY);
-            final Vector2 max = this.boundingBox.getMax().clone();
-            final Quadrant quadrant = new Quadrant(min,max);
-            for (int i = 0; i < rectangles.length; i++) {
-                if (quadrant.overlaps(rectangles[i])) {
-                    quadrant.getIds().add(i);
-                }
+    @Override
+    public Quadrant[] getQuadrants() {
+        Quadrant[] quadrants = this.quadrants;
+        if (quadrants == null) {
+            final Rectangle[] rectangles = getRectangles();
+            final Vector2 min = boundingBox.getMin(), max = boundingBox.getMax();
+            final int midX = (int) this.midX, midY = (int) this.midY;
+            quadrants = new Quadrant[] {
+                    compileQuadrant(new Vector2(midX, midY), max.clone(), rectangles),
+                    compileQuadrant(new Vector2(midX, min.getY()), new Vector2(max.getX(), midY), rectangles),
+                    compileQuadrant(min.clone(), new Vector2(midX, midY), rectangles),
+                    compileQuadrant(new Vector2(min.getX(), midY), new Vector2(midX, max.getY()), rectangles)
+            };
+            if (lookup.store == null) {
+                this.quadrants = quadrants;
             }
-            this.quadrants[0] = quadrant;
         }
-        // Second Quadrant
-        {
-            final Vector2 min = new Vector2((int) midX, boundingBox.getMin().getY());
-            final Vector2 max = new Vector2(boundingBox.getMax().getX(), (int) midY);
-            final Quadrant quadrant = new Quadrant(min,max);
-            for (int i = 0; i < rectangles.length; i++) {
-                if (quadrant.overlaps(rectangles[i])) {
-                    quadrant.getIds().add(i);
-                }
+        return quadrants;
+    }
+
+    /**
+     * Create a quadrant holding the indices of the rectangles that overlap it
+     */
+    private static Quadrant compileQuadrant(final Vector2 min, final Vector2 max, final Rectangle[] rectangles) {
+        final Quadrant quadrant = new Quadrant(min, max);
+        for (int i = 0; i < rectangles.length; i++) {
+            if (quadrant.overlaps(rectangles[i])) {
+                quadrant.getIds().add(i);
             }
-            this.quadrants[1] = quadrant;
         }
-        // Third Quadrant
-        {
-            final Vector2 min = this.boundingBox.getMin().clone();
-            final Vector2 max = new Vector2((int) midX, (int) midY);
-            final Quadrant quadrant = new Quadrant(min,max);
-            for (int i = 0; i < rectangles.length; i++) {
-                if (quadrant.overlaps(rectangles[i])) {
-                    quadrant.getIds().add(i);
-                }
-            }
-            this.quadrants[2] = quadrant;
+        return quadrant;
+    }
+
+    @Override
+    public synchronized void release() {
+        if (released) {
+            return;
         }
-        // Fourth Quadrant
-        {
-            final Vector2 min = new Vector2(boundingBox.getMin().getX(), (int) midY);
-            final Vector2 max = new Vector2((int) midX, boundingBox.getMax().getY());
-            final Quadrant quadrant = new Quadrant(min,max);
-            for (int i = 0; i < rectangles.length; i++) {
-                if (quadrant.overlaps(rectangles[i])) {
-                    quadrant.getIds().add(i);
-                }
+        released = true;
+        final Lookup previous = this.lookup;
+        // Lookups that still hold the region find nothing from now on
+        this.lookup = Lookup.NONE;
+        this.rectangles = null;
+        this.quadrants = null;
+        previous.free();
+    }
+
+    /**
+     * Update the chunk coverage table. If rectangles were only
+     * appended since the last compilation (which is what expanding
+     * does) then only the new rectangles are added, to a copy of
+     * the table that lookups may still be reading
+     *
+     * @param previous The current table, or null
+     * @param added The rectangles as they were set, before they were merged
+     * @return The table, or null if the region is too large for one
+     */
+    private ChunkCoverage compileCoverage(final ChunkCoverage previous, final Rectangle[] added) {
+        if (!ChunkCoverage.isApplicable(boundingBox)) {
+            this.coveredRectangles = null;
+            return null;
+        }
+        boolean appended = previous != null && coveredRectangles != null && coveredRectangles.length <= added.length;
+        for (int i = 0; appended && i < coveredRectangles.length; i++) {
+            appended = coveredRectangles[i] == added[i];
+        }
+        final ChunkCoverage coverage;
+        if (appended) {
+            coverage = new ChunkCoverage(previous);
+            for (int i = coveredRectangles.length; i < added.length; i++) {
+                coverage.addRectangle(added[i]);
+            }
+        } else {
+            coverage = new ChunkCoverage();
+            for (final Rectangle rectangle : rectangles) {
+                coverage.addRectangle(rectangle);
             }
-            this.quadrants[3] = quadrant;
         }
+        this.coveredRectangles = rectangles;
+        return coverage;
+    }
 
-        this.compiled = true;
-        this.compileCorners();
+    @Override
+    public ChunkCoverage.ChunkState getChunkState(final int chunkX, final int chunkZ) {
+        final ChunkCoverage coverage = lookup.coverage;
+        if (coverage != null) {
+            return coverage.getChunkState(chunkX, chunkZ);
+        }
+        return overlaps(chunkX << 4, chunkZ << 4, (chunkX << 4) + 15, (chunkZ << 4) + 15) ? ChunkCoverage.ChunkState.PARTIAL : ChunkCoverage.ChunkState.OUTSIDE;
     }
 
     @Override
     public boolean isInRegion(@NonNull final Vector2 v2) {
-        if (this.boundingBox.isInside(v2)) {
-            final Quadrant quadrant = Quadrant.findQuadrant(quadrants, midX, midY, v2);
-            for (final int rectangleID : quadrant.getIds()) {
-                if (this.rectangles[rectangleID].isInside(v2)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return isInRegion(v2.getX(), v2.getY());
     }
 
     @Override
-    public void compileCorners() {
-        final Area nativeArea = new Area();
-        for (final Rectangle rectangle : rectangles) {
-            nativeArea.add(rectangle.toArea(boundingBox.getMin()));
+    public boolean isInRegion(final int x, final int z) {
+        final Lookup lookup = this.lookup;
+        if (x < lookup.minX || x > lookup.maxX || z < lookup.minY || z > lookup.maxY) {
+            return false;
+        }
+        if (lookup.coverage != null) {
+            return lookup.coverage.isInside(x, z);
+        }
+        return findRectangle(x, z) != -1;
+    }
+
+    /**
+     * Find the rectangle that contains the point
+     *
+     * @return Index in {@link #getRectangles()}, or -1
+     */
+    private int findRectangle(final int x, final int y) {
+        final Lookup lookup = this.lookup;
+        if (lookup.store == null) {
+            return lookup.find(x, y);
         }
-        final List<Vector2> list = new ArrayList<>();
-        final double coords[] = new double[6];
-        final AffineTransform transform = AffineTransform.getRotateInstance(1,0);
-        for (PathIterator pathIterator = nativeArea.getPathIterator(transform); !pathIterator.isDone(); pathIterator.next()) {
-            pathIterator.currentSegment(coords);
-            list.add(new Vector2(boundingBox.getMin().getX() + (int) coords[0], boundingBox.getMin().getY() + (int) coords[1]));
+        // The lookup has to be read again once the read is counted, the
+        // slice of the one read before could already have been reused
+        final long token = RectangleStore.enter();
+        try {
+            return this.lookup.find(x, y);
+        } finally {
+            RectangleStore.exit(token);
         }
-        this.corners = ImmutableList.copyOf(list);
+    }
+
+    @Override
+    public void compileCorners() {
+        // Pure integer sweep over the rectangles, which touches no shared state
+        this.union = RectangleUnion.of(getRectangles());
+        this.corners = union.getCorners();
+    }
+
+    private RectangleUnion getUnion() {
+        final RectangleUnion union = this.union;
+        return union != null ? union : RectangleUnion.of(getRectangles());
     }
 
     @Override
     public ImmutableList<Vector2> getCorners() {
-        return corners;
+        final ImmutableList<Vector2> corners = this.corners;
+        return corners != null ? corners : getUnion().getCorners();
     }
 
     @Override
     public ImmutableCollection<Vector2> getOutline(final boolean includeCorners) {
-        final List<Vector2> points = new ArrayList<>();
-        final List<Vector2> toRemove = new ArrayList<>();
-        for (val rectangle : rectangles) {
-            for (val v2 : rectangle.getOutline()) {
-                if (points.contains(v2)) {
-                    toRemove.add(v2);
-                } else {
-                    points.add(v2);
-                }
-            }
-        }
-        if (includeCorners) {
-            for (val v2 : getCorners()) {
-                if (points.contains(v2)) {
-                    toRemove.add(v2);
-                } else {
-                    points.add(v2);
-                }
-            }
-        }
-        points.removeAll(toRemove);
-        return ImmutableList.copyOf(points);
+        return ImmutableList.copyOf(streamOutline(includeCorners, 1).iterator());
+    }
+
+    @Override
+    public Stream<Vector2> streamOutline(final boolean includeCorners, final int step) {
+        final PrimitiveIterator.OfLong iterator = getUnion().outline(includeCorners, step);
+        return StreamSupport.longStream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .mapToObj(PackedVector2::toVector);
     }
 
     @Override
@@ -210,17 +334,26 @@ public class SimpleRegion extends RegionContainer implements Region {
 
     @Override
     public boolean overlaps(@NonNull final Rectangle r2) {
-        for (Rectangle rectangle : rectangles) {
-            if (rectangle.overlaps(r2)) {
-                return true;
-            }
+        return overlaps(r2.getMin().getX(), r2.getMin().getY(), r2.getMax().getX(), r2.getMax().getY());
+    }
+
+    @Override
+    public boolean overlaps(final int minX, final int minY, final int maxX, final int maxY) {
+        final Lookup lookup = this.lookup;
+        if (lookup.store == null) {
+            return lookup.overlaps(minX, minY, maxX, maxY);
+        }
+        final long token = RectangleStore.enter();
+        try {
+            return this.lookup.overlaps(minX, minY, maxX, maxY);
+        } finally {
+            RectangleStore.exit(token);
         }
-        return false;
     }
 
     @Override
     public boolean isExpandableTo(@NonNull final Rectangle r2) {
-        for (Rectangle rectangle : rectangles) {
+        for (Rectangle rectangle : getRectangles()) {
             if (rectangle.getMax().getY() == r2.getMin().getY() ||
                     rectangle.getMax().getX() == r2.getMin().getX() ||
                     rectangle.getMin().getY() == r2.getMax().getY() ||
@@ -234,7 +367,7 @@ public class SimpleRegion extends RegionContainer implements Region {
     @Override
     public Rectangle isExceeding(Rectangle r2) {
         Vector2[] r2c = r2.getCorners();
-        for (Rectangle rectangle : rectangles) {
+        for (Rectangle rectangle : getRectangles()) {
             boolean r2c0 = rectangle.isInside(r2c[0]);
             boolean r2c1 = rectangle.isInside(r2c[1]);
             boolean r2c2 = rectangle.isInside(r2c[2]);
@@ -257,17 +390,193 @@ public class SimpleRegion extends RegionContainer implements Region {
 
     @Override
     public int getRectangle(Vector2 location) {
-        final Quadrant currentQuadrant = Quadrant.findQuadrant(quadrants, midX, midY, location);
-        for (final int rectangleID : currentQuadrant.getIds()) {
-            if (this.rectangles[rectangleID].isInside(location)) {
-                return rectangleID;
-            }
-        }
-        return -1;
+        return findRectangle(location.getX(), location.getY());
     }
 
     @Override
     public String toString() {
         return Integer.toString(this.getId());
     }
+
+    /**
+     * The compiled rectangles of a region, either as flat arrays
+     * sorted by minX or as a slice of a {@link RectangleStore}.
+     * Never modified once it's published
+     */
+    private static final class Lookup {
+
+        // Lookup of a region that isn't compiled, or that was released
+        private static final Lookup NONE = new Lookup(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE,
+                Integer.MIN_VALUE, 0, null, new int[0], new int[0], new int[0], new int[0], new int[0], null,
+                null, null, 0);
+
+        private final int minX, minY, maxX, maxY;
+        private final int count;
+
+        // On the heap. rectangleOrder maps the sorted position back to the index in rectangles
+        private final Rectangle[] rectangles;
+        private final int[] rectangleMinX, rectangleMinY, rectangleMaxX, rectangleMaxY, rectangleOrder;
+
+        // rectanglePrefixMaxX[i] is the largest maxX of the rectangles 0..i,
+        // only built for regions above RECTANGLE_INDEX_THRESHOLD
+        private final int[] rectanglePrefixMaxX;
+
+        private final ChunkCoverage coverage;
+
+        // Off the heap, the slice holds count rectangles
+        private final RectangleStore store;
+        private final int offset;
+
+        private Lookup(final int minX, final int minY, final int maxX, final int maxY, final int count,
+                       final Rectangle[] rectangles,
+                       final int[] rectangleMinX, final int[] rectangleMinY, final int[] rectangleMaxX,
+                       final int[] rectangleMaxY, final int[] rectangleOrder, final int[] rectanglePrefixMaxX,
+                       final ChunkCoverage coverage, final RectangleStore store, final int offset) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.rectangles = rectangles;
+            this.count = count;
+            this.rectangleMinX = rectangleMinX;
+            this.rectangleMinY = rectangleMinY;
+            this.rectangleMaxX = rectangleMaxX;
+            this.rectangleMaxY = rectangleMaxY;
+            this.rectangleOrder = rectangleOrder;
+            this.rectanglePrefixMaxX = rectanglePrefixMaxX;
+            this.coverage = coverage;
+            this.store = store;
+            this.offset = offset;
+        }
+
+        private static Lookup onHeap(final Rectangle boundingBox, final Rectangle[] rectangles,
+                                     final ChunkCoverage coverage) {
+            final int count = rectangles.length;
+            // Sort (minX, index) pairs packed into longs, to keep everything primitive
+            final long[] keys = new long[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = ((long) rectangles[i].getMin().getX() << 32) | i;
+            }
+            Arrays.sort(keys);
+            final int[] minX = new int[count], minY = new int[count], maxX = new int[count],
+                    maxY = new int[count], order = new int[count];
+            for (int i = 0; i < count; i++) {
+                final int index = (int) keys[i];
+                final Rectangle rectangle = rectangles[index];
+                minX[i] = rectangle.getMin().getX();
+                minY[i] = rectangle.getMin().getY();
+                maxX[i] = rectangle.getMax().getX();
+                maxY[i] = rectangle.getMax().getY();
+                order[i] = index;
+            }
+            int[] prefixMaxX = null;
+            if (count >= RECTANGLE_INDEX_THRESHOLD) {
+                prefixMaxX = new int[count];
+                for (int i = 0; i < count; i++) {
+                    prefixMaxX[i] = i == 0 ? maxX[0] : Math.max(prefixMaxX[i - 1], maxX[i]);
+                }
+            }
+            return new Lookup(boundingBox.getMin().getX(), boundingBox.getMin().getY(), boundingBox.getMax().getX(),
+                    boundingBox.getMax().getY(), count, rectangles, minX, minY, maxX, maxY, order, prefixMaxX, coverage,
+                    null, 0);
+        }
+
+        /**
+         * @param rectangles Rectangles, sorted by minX
+         */
+        private static Lookup stored(final Rectangle boundingBox, final RectangleStore store,
+                                     final Rectangle[] rectangles) {
+            final int count = rectangles.length;
+            final int[] minX = new int[count], minY = new int[count], maxX = new int[count], maxY = new int[count];
+            for (int i = 0; i < count; i++) {
+                minX[i] = rectangles[i].getMin().getX();
+                minY[i] = rectangles[i].getMin().getY();
+                maxX[i] = rectangles[i].getMax().getX();
+                maxY[i] = rectangles[i].getMax().getY();
+            }
+            final int offset = store.store(boundingBox, minX, minY, maxX, maxY);
+            return new Lookup(boundingBox.getMin().getX(), boundingBox.getMin().getY(), boundingBox.getMax().getX(),
+                    boundingBox.getMax().getY(), count, null, null, null, null, null, null, null, null, store, offset);
+        }
+
+        /**
+         * Give the slice back to the store, once the lookup is no longer published
+         */
+        private void free() {
+            if (store != null) {
+                store.free(offset, count);
+            }
+        }
+
+        private Rectangle[] getRectangles(final int regionID) {
+            if (store != null) {
+                return store.getRectangles(offset, count, regionID);
+            }
+            return rectangles == null ? NO_RECTANGLES : rectangles;
+        }
+
+        /**
+         * Get the amount of sorted rectangles with minX <= x
+         */
+        private int countStartingBefore(final int x) {
+            int low = 0, high = rectangleMinX.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (rectangleMinX[mid] <= x) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Find the rectangle that contains the point
+         *
+         * @return Index in the rectangles, or -1
+         */
+        private int find(final int x, final int y) {
+            if (store != null) {
+                return store.findRectangle(offset, count, x, y);
+            }
+            if (rectanglePrefixMaxX != null) {
+                // Binary search for the last rectangle starting at or before x, and
+                // walk backwards until no earlier rectangle reaches as far as x
+                for (int i = countStartingBefore(x) - 1; i >= 0 && rectanglePrefixMaxX[i] >= x; i--) {
+                    if (x <= rectangleMaxX[i] && y >= rectangleMinY[i] && y <= rectangleMaxY[i]) {
+                        return rectangleOrder[i];
+                    }
+                }
+                return -1;
+            }
+            // Sorted by minX, so nothing after the first minX > x can match
+            for (int i = 0; i < rectangleMinX.length && rectangleMinX[i] <= x; i++) {
+                if (x <= rectangleMaxX[i] && y >= rectangleMinY[i] && y <= rectangleMaxY[i]) {
+                    return rectangleOrder[i];
+                }
+            }
+            return -1;
+        }
+
+        private boolean overlaps(final int minX, final int minY, final int maxX, final int maxY) {
+            if (store != null) {
+                return store.overlaps(offset, count, minX, minY, maxX, maxY);
+            }
+            if (rectanglePrefixMaxX != null) {
+                for (int i = countStartingBefore(maxX) - 1; i >= 0 && rectanglePrefixMaxX[i] >= minX; i--) {
+                    if (minX <= rectangleMaxX[i] && minY <= rectangleMaxY[i] && maxY >= rectangleMinY[i]) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            for (int i = 0; i < rectangleMinX.length && rectangleMinX[i] <= maxX; i++) {
+                if (minX <= rectangleMaxX[i] && minY <= rectangleMaxY[i] && maxY >= rectangleMinY[i]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
 }
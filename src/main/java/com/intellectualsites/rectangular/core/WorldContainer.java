@@ -3,10 +3,6 @@ package com.intellectualsites.rectangular.core;
 import com.intellectualsites.rectangular.vector.Vector2;
 import lombok.Getter;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.stream.Collectors;
-
 public class WorldContainer extends RegionContainer {
 
     @Getter
@@ -29,14 +25,4 @@ public class WorldContainer extends RegionContainer {
         }
         return "w:" + worldName;
     }
-
-    @Override
-    public List<Integer> getRegionIDs() {
-        List<Integer> ids = new ArrayList<>();
-        for (Quadrant quadrant : getContainerQuadrants()) {
-            ids.addAll(quadrant.getIds().stream().filter(id -> !ids.contains(id))
-                    .collect(Collectors.toSet()));
-        }
-        return ids;
-    }
 }
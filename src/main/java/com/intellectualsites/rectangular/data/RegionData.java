@@ -85,6 +85,25 @@ public class RegionData {
         return dataEntries.get(type).get(type.getKey() + key);
     }
 
+    /**
+     * Get the raw meta values, including the owner,
+     * as they're stored in the database
+     *
+     * @return Map of meta keys and values
+     */
+    public Map<String, String> getRawEntries() {
+        Map<String, String> map = new HashMap<>();
+        if (owner != null) {
+            map.put("owner", owner);
+        }
+        for (Map<String, DataEntry> entries : dataEntries.values()) {
+            for (DataEntry entry : entries.values()) {
+                map.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return map;
+    }
+
     public String getPackedData() {
         StringBuilder builder = new StringBuilder();
         for (Map<String, DataEntry> entries : dataEntries.values()) {
@@ -0,0 +1,418 @@
+package com.intellectualsites.rectangular.database;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Bounded pool of physical connections to another data source.
+ * Closing a borrowed connection hands it back to the pool, along
+ * with closing the statements that were left open on it.
+ * Connections are validated when they've been idle for a while,
+ * and are retired once they exceed the idle timeout or their
+ * maximum lifetime. Idle connections are retired in the background,
+ * so they don't outlive a timeout on the server side
+ *
+ * @author Citymonstret
+ */
+public class ConnectionPool implements DataSource {
+
+    /**
+     * Connections that were used more recently than this
+     * are handed out without being validated
+     */
+    private static final long VALIDATION_INTERVAL = 500L;
+
+    /**
+     * Time in milliseconds between scans for expired idle connections
+     */
+    private static final long REAP_INTERVAL = 30000L;
+
+    // Open statements per borrow, before the closed ones are pruned
+    private static final int STATEMENT_PRUNE_SIZE = 32;
+
+    private final DataSource target;
+
+    @Getter
+    private final int maxSize;
+
+    private final Semaphore permits;
+
+    // Most recently returned first, so that the others can time out
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+
+    /**
+     * Time in milliseconds to wait for a connection, before giving up
+     */
+    @Getter
+    @Setter
+    private long connectionTimeout = 10000L;
+
+    /**
+     * Time in milliseconds that a connection may be idle
+     */
+    @Getter
+    @Setter
+    private long idleTimeout = 600000L;
+
+    /**
+     * Time in milliseconds that a connection may live
+     */
+    @Getter
+    @Setter
+    private long maxLifetime = 1800000L;
+
+    /**
+     * Time in seconds that validating a connection may take
+     */
+    @Getter
+    @Setter
+    private int validationTimeout = 5;
+
+    private volatile boolean closed = false;
+
+    private final AtomicLong acquired = new AtomicLong(), timeouts = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong(), maxWaitNanos = new AtomicLong();
+    private final AtomicLong reaped = new AtomicLong();
+
+    private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "Rectangular Connection Reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ConnectionPool(@NonNull final DataSource target, final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("The pool needs room for at least one connection");
+        }
+        this.target = target;
+        this.maxSize = maxSize;
+        this.permits = new Semaphore(maxSize, true);
+        this.reaper.scheduleWithFixedDelay(this::reap, REAP_INTERVAL, REAP_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Log the statistics of the pool at a fixed rate
+     *
+     * @param logger Receives the statistics
+     * @param interval Time in milliseconds between two logs, 0 or less disables them
+     */
+    public void logStatistics(@NonNull final Consumer<String> logger, final long interval) {
+        if (interval > 0) {
+            reaper.scheduleAtFixedRate(() -> logger.accept(getStatistics()), interval, interval,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("The connection pool is closed");
+        }
+        final long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(connectionTimeout, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLException("Timed out after " + connectionTimeout + "ms waiting for a connection, "
+                        + maxSize + " connections are in use");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        final long waited = System.nanoTime() - start;
+        acquired.incrementAndGet();
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isUsable(pooled)) {
+                    return pooled.borrow();
+                }
+                closeQuietly(pooled.physical);
+            }
+            final Connection physical = target.getConnection();
+            try {
+                return new PooledConnection(physical).borrow();
+            } catch (final SQLException | RuntimeException e) {
+                closeQuietly(physical);
+                throw e;
+            }
+        } catch (final SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private boolean isUsable(final PooledConnection pooled) throws SQLException {
+        final long now = System.currentTimeMillis();
+        if (isExpired(pooled, now)) {
+            return false;
+        }
+        return now - pooled.lastUsed < VALIDATION_INTERVAL || pooled.physical.isValid(validationTimeout);
+    }
+
+    private boolean isExpired(final PooledConnection pooled, final long now) {
+        return now - pooled.created > maxLifetime || now - pooled.lastUsed > idleTimeout;
+    }
+
+    /**
+     * Close the idle connections that have expired
+     */
+    private void reap() {
+        final long now = System.currentTimeMillis();
+        for (final PooledConnection pooled : idle) {
+            // Whoever removes it first owns it, either this or a borrower
+            if (isExpired(pooled, now) && idle.removeFirstOccurrence(pooled)) {
+                reaped.incrementAndGet();
+                closeQuietly(pooled.physical);
+            }
+        }
+    }
+
+    private void giveBack(final PooledConnection pooled) {
+        try {
+            final long now = System.currentTimeMillis();
+            if (closed || pooled.physical.isClosed() || now - pooled.created > maxLifetime) {
+                closeQuietly(pooled.physical);
+                return;
+            }
+            // Leave no transaction behind for the next borrower
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            if (pooled.stateChanged) {
+                pooled.resetState();
+            }
+            pooled.lastUsed = now;
+            idle.offerFirst(pooled);
+        } catch (final SQLException e) {
+            closeQuietly(pooled.physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Close all idle connections, and every borrowed
+     * connection as soon as it's given back
+     */
+    public void close() {
+        closed = true;
+        reaper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            closeQuietly(pooled.physical);
+        }
+    }
+
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    public int getActiveConnections() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public long getAcquiredCount() {
+        return acquired.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    public double getAverageWaitMillis() {
+        final long count = acquired.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / 1e6 / count;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    public long getReapedCount() {
+        return reaped.get();
+    }
+
+    /**
+     * Get a summary of the usage and wait times of the pool
+     *
+     * @return Single line summary
+     */
+    public String getStatistics() {
+        return String.format("Connection pool: %d/%d active, %d idle, %d acquired, %d timed out, "
+                        + "%.2fms average wait, %.2fms max wait, %d idle connections retired",
+                getActiveConnections(), maxSize, getIdleConnections(), getAcquiredCount(), getTimeoutCount(),
+                getAverageWaitMillis(), getMaxWaitMillis(), getReapedCount());
+    }
+
+    private static void closeQuietly(final AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (final Exception ignored) {
+        }
+    }
+
+    private static boolean isClosed(final Statement statement) {
+        try {
+            return statement.isClosed();
+        } catch (final SQLException e) {
+            return true;
+        }
+    }
+
+    private final class PooledConnection {
+
+        private final Connection physical;
+        private final long created = System.currentTimeMillis();
+        // Read by the reaper while the connection is idle
+        private volatile long lastUsed = created;
+
+        // The state that every borrower gets, restored when a borrower changed it
+        private final boolean readOnly;
+        private final int transactionIsolation;
+        private final String catalog;
+        private boolean stateChanged = false;
+
+        private PooledConnection(final Connection physical) throws SQLException {
+            this.physical = physical;
+            this.readOnly = physical.isReadOnly();
+            this.transactionIsolation = physical.getTransactionIsolation();
+            this.catalog = physical.getCatalog();
+        }
+
+        private void resetState() throws SQLException {
+            if (physical.isReadOnly() != readOnly) {
+                physical.setReadOnly(readOnly);
+            }
+            if (physical.getTransactionIsolation() != transactionIsolation) {
+                physical.setTransactionIsolation(transactionIsolation);
+            }
+            if (!Objects.equals(physical.getCatalog(), catalog)) {
+                physical.setCatalog(catalog);
+            }
+            stateChanged = false;
+        }
+
+        /**
+         * Wrap the connection, so that close() closes the statements created
+         * through the wrapper and gives the connection back. Every borrow gets
+         * its own wrapper, which can't be used after it has been closed
+         */
+        private Connection borrow() {
+            final boolean[] returned = new boolean[1];
+            final List<Statement> statements = new ArrayList<>();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, (proxy, method, arguments) -> {
+                        switch (method.getName()) {
+                            case "close":
+                                if (!returned[0]) {
+                                    returned[0] = true;
+                                    // Also closes their result sets, before the rollback in giveBack
+                                    statements.forEach(ConnectionPool::closeQuietly);
+                                    giveBack(this);
+                                }
+                                return null;
+                            case "isClosed":
+                                return returned[0] || physical.isClosed();
+                            case "equals":
+                                return proxy == arguments[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "toString":
+                                return "Pooled" + physical;
+                            default:
+                                if (returned[0]) {
+                                    throw new SQLException("The connection has been closed");
+                                }
+                                if (method.getName().equals("setReadOnly")
+                                        || method.getName().equals("setTransactionIsolation")
+                                        || method.getName().equals("setCatalog")) {
+                                    stateChanged = true;
+                                }
+                                final Object result;
+                                try {
+                                    result = method.invoke(physical, arguments);
+                                } catch (final InvocationTargetException e) {
+                                    throw e.getCause();
+                                }
+                                if (result instanceof Statement) {
+                                    if (statements.size() >= STATEMENT_PRUNE_SIZE) {
+                                        statements.removeIf(ConnectionPool::isClosed);
+                                    }
+                                    statements.add((Statement) result);
+                                }
+                                return result;
+                        }
+                    });
+        }
+    }
+
+    @Override
+    public Connection getConnection(final String username, final String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("The pool only hands out connections with its own credentials");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return target.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(final PrintWriter out) throws SQLException {
+        target.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(final int seconds) throws SQLException {
+        target.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return target.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(final Class<T> type) throws SQLException {
+        if (type.isInstance(this)) {
+            return (T) this;
+        }
+        return target.unwrap(type);
+    }
+
+    @Override
+    public boolean isWrapperFor(final Class<?> type) throws SQLException {
+        return type.isInstance(this) || target.isWrapperFor(type);
+    }
+}
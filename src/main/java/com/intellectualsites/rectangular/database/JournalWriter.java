@@ -0,0 +1,241 @@
+package com.intellectualsites.rectangular.database;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32;
+
+/**
+ * Appends records to numbered journal segments from a single thread.
+ * Everything that is queued while the disk is busy is written in one
+ * go and forced with a single fsync (group commit), so appending never
+ * waits for the disk. Every record is framed by its length and CRC32,
+ * so a torn write at the end of a segment can be detected on replay
+ * <p>
+ * A failed write leaves a gap that later records may depend on, so the
+ * writer stops at the first failure: pending and later syncs report it,
+ * and no further records are accepted
+ *
+ * @author Citymonstret
+ */
+final class JournalWriter {
+
+    static final int FRAME_HEADER = 8;
+
+    private final File directory;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+
+    private FileChannel channel;
+
+    /**
+     * Number of the segment that is being appended to
+     */
+    @Getter
+    private volatile int segment;
+
+    /**
+     * Size of the current segment in bytes
+     */
+    @Getter
+    private volatile long segmentSize;
+
+    private volatile boolean closed = false;
+
+    /**
+     * The error that stopped the writer, or null
+     */
+    @Getter
+    private volatile IOException failure;
+
+    JournalWriter(@NonNull final File directory, final int segment) throws IOException {
+        this.directory = directory;
+        openSegment(segment);
+        this.thread = new Thread(this::run, "Rectangular Journal Writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    static File getSegmentFile(final File directory, final int segment) {
+        return new File(directory, String.format("journal-%08d.log", segment));
+    }
+
+    /**
+     * Queue a record, it's durable after the next group commit
+     *
+     * @param record Record payload
+     */
+    void append(@NonNull final byte[] record) {
+        if (closed) {
+            throw new IllegalStateException("The journal is closed");
+        }
+        if (failure != null) {
+            throw new IllegalStateException("The journal failed to write", failure);
+        }
+        queue.add(record);
+    }
+
+    /**
+     * Start a new segment once everything queued before this call has been
+     * written. The future is completed with the number of the new segment,
+     * or with the error if the writer has failed
+     *
+     * @return The new segment number
+     */
+    CompletableFuture<Integer> rotate() {
+        final Rotation rotation = new Rotation();
+        queue.add(rotation);
+        return rotation.segment;
+    }
+
+    /**
+     * Wait until everything queued before this call has been written
+     *
+     * @param timeout Time to wait, in milliseconds
+     * @return True if everything was written in time, false if it
+     *         timed out or the writer has failed
+     * @throws InterruptedException If interrupted while waiting
+     */
+    boolean sync(final long timeout) throws InterruptedException {
+        final CompletableFuture<Void> synced = new CompletableFuture<>();
+        queue.add(synced);
+        try {
+            synced.get(timeout, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (final ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Write everything that's queued, and stop the writer
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.add(this); // Stops the writer once it's reached
+        try {
+            thread.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        final List<Object> batch = new ArrayList<>();
+        final CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                if (failure != null) {
+                    running = fail(batch);
+                    continue;
+                }
+                for (final Object item : batch) {
+                    if (item instanceof byte[]) {
+                        final byte[] record = (byte[]) item;
+                        if (buffer.remaining() < record.length + FRAME_HEADER) {
+                            write(buffer);
+                            if (buffer.capacity() < record.length + FRAME_HEADER) {
+                                buffer = ByteBuffer.allocate(record.length + FRAME_HEADER);
+                            }
+                        }
+                        crc.reset();
+                        crc.update(record, 0, record.length);
+                        buffer.putInt(record.length).putInt((int) crc.getValue()).put(record);
+                        continue;
+                    }
+                    // Markers see everything that was queued before them on disk
+                    write(buffer);
+                    channel.force(false);
+                    if (item instanceof Rotation) {
+                        channel.close();
+                        openSegment(segment + 1);
+                        ((Rotation) item).segment.complete(segment);
+                    } else if (item instanceof CompletableFuture) {
+                        ((CompletableFuture<?>) item).complete(null);
+                    } else if (item == this) {
+                        running = false;
+                    }
+                }
+                write(buffer);
+                channel.force(false);
+            } catch (final InterruptedException e) {
+                running = false;
+            } catch (final IOException e) {
+                // The records of this batch may be missing from the journal. They
+                // stay in memory until shutdown, but nothing is written after them
+                e.printStackTrace();
+                failure = e;
+                buffer.clear();
+                running = fail(batch);
+            } finally {
+                batch.clear();
+            }
+        }
+        try {
+            if (channel.isOpen()) {
+                channel.close();
+            }
+        } catch (final IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Report the failure to every marker in the batch
+     *
+     * @return False if the batch holds the close marker
+     */
+    private boolean fail(final List<Object> batch) {
+        boolean running = true;
+        for (final Object item : batch) {
+            if (item instanceof Rotation) {
+                ((Rotation) item).segment.completeExceptionally(failure);
+            } else if (item instanceof CompletableFuture) {
+                ((CompletableFuture<?>) item).completeExceptionally(failure);
+            } else if (item == this) {
+                running = false;
+            }
+        }
+        return running;
+    }
+
+    private void write(final ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            segmentSize += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void openSegment(final int segment) throws IOException {
+        this.channel = FileChannel.open(getSegmentFile(directory, segment).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.channel.position(this.channel.size());
+        this.segmentSize = this.channel.size();
+        this.segment = segment;
+    }
+
+    private static final class Rotation {
+        private final CompletableFuture<Integer> segment = new CompletableFuture<>();
+    }
+}
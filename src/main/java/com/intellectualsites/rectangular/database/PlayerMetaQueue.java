@@ -0,0 +1,239 @@
+package com.intellectualsites.rectangular.database;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Write-behind queue for player meta. Only the latest value of
+ * every (uuid, key) pair is kept, and the changes are written in
+ * a single transaction, either on an interval or once enough
+ * changes have piled up. Flushes never overlap, so the database
+ * always ends up with the latest value
+ * <p>
+ * If a flush fails, its changes are written one at a time. A change
+ * that keeps failing for any reason but a lost connection is dropped
+ * after {@link #MAX_ATTEMPTS} attempts, so it can't block the queue
+ *
+ * @author Citymonstret
+ */
+@RequiredArgsConstructor
+public class PlayerMetaQueue {
+
+    // Marks a removed key, compared by identity
+    private static final byte[] REMOVED = new byte[0];
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final RectangularDB database;
+
+    private final Map<Key, byte[]> pending = new ConcurrentHashMap<>();
+
+    // Failed attempts of changes that are queued again, guarded by this
+    private final Map<Key, Integer> attempts = new HashMap<>();
+
+    /**
+     * Time in milliseconds between flushes
+     */
+    @Getter
+    @Setter
+    private long flushInterval = 1000L;
+
+    /**
+     * Amount of pending keys that triggers a flush right away
+     */
+    @Getter
+    @Setter
+    private int flushSize = 256;
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private volatile ScheduledExecutorService executor;
+    private ScheduledFuture<?> intervalTask;
+    private volatile boolean closed = false;
+
+    public void set(@NonNull final String uuid, @NonNull final String key, @NonNull final byte[] value) {
+        enqueue(new Key(uuid, key), value);
+    }
+
+    public void remove(@NonNull final String uuid, @NonNull final String key) {
+        enqueue(new Key(uuid, key), REMOVED);
+    }
+
+    private void enqueue(final Key key, final byte[] value) {
+        pending.put(key, value);
+        if (closed) {
+            // Nothing flushes in the background anymore, so write it right away
+            flush();
+            return;
+        }
+        if (executor == null) {
+            start();
+        }
+        final ScheduledExecutorService executor = this.executor;
+        if (executor != null && pending.size() >= flushSize && flushScheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> {
+                    flushScheduled.set(false);
+                    flush();
+                });
+            } catch (final RejectedExecutionException e) {
+                // Closed in the meantime, the final flush picks it up
+                flushScheduled.set(false);
+            }
+        }
+    }
+
+    private synchronized void start() {
+        if (executor == null && !closed) {
+            executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "Rectangular Meta Writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            intervalTask = executor.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Write all pending changes. If the write fails, the changes
+     * are queued again, unless they've been replaced since
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        final Map<Key, byte[]> drained = new HashMap<>();
+        for (final Key key : pending.keySet()) {
+            final byte[] value = pending.remove(key);
+            if (value != null) {
+                drained.put(key, value == REMOVED ? null : value);
+            }
+        }
+        try {
+            database.writePlayerMeta(drained);
+            attempts.clear();
+        } catch (final Exception e) {
+            if (drained.size() == 1) {
+                retryLater(drained.entrySet().iterator().next(), e);
+                return;
+            }
+            // Find the changes that fail, rather than retrying all of them
+            for (final Map.Entry<Key, byte[]> entry : drained.entrySet()) {
+                try {
+                    database.writePlayerMeta(Collections.singletonMap(entry.getKey(), entry.getValue()));
+                    attempts.remove(entry.getKey());
+                } catch (final Exception rowException) {
+                    retryLater(entry, rowException);
+                }
+            }
+        }
+    }
+
+    /**
+     * Queue a failed change again, unless it has been replaced since,
+     * or has failed too often for anything but a lost connection
+     */
+    private void retryLater(final Map.Entry<Key, byte[]> change, final Exception e) {
+        final Key key = change.getKey();
+        if (!isConnectionFailure(e)) {
+            final int failed = attempts.merge(key, 1, Integer::sum);
+            if (failed >= MAX_ATTEMPTS) {
+                attempts.remove(key);
+                new IllegalStateException("Dropping player meta " + key.getKey() + " of " + key.getUuid()
+                        + " after " + failed + " failed writes", e).printStackTrace();
+                return;
+            }
+        }
+        e.printStackTrace();
+        pending.putIfAbsent(key, change.getValue() == null ? REMOVED : change.getValue());
+    }
+
+    private static boolean isConnectionFailure(final Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLRecoverableException || cause instanceof SQLTransientException) {
+                return true;
+            }
+            // SQL state class 08 is a connection exception
+            if (cause instanceof SQLException && ((SQLException) cause).getSQLState() != null
+                    && ((SQLException) cause).getSQLState().startsWith("08")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read the stored meta of a player, with the changes that are still
+     * queued applied on top. No flush can run while the meta is read, so
+     * every change is either read from the database or still queued
+     *
+     * @param uuid Player UUID
+     * @param reader Reads the stored meta of a player
+     * @return The meta, by key
+     */
+    public synchronized Map<String, byte[]> load(@NonNull final String uuid,
+                                                 @NonNull final Function<String, Map<String, byte[]>> reader) {
+        final Map<String, byte[]> meta = new HashMap<>(reader.apply(uuid));
+        for (final Map.Entry<Key, byte[]> entry : pending.entrySet()) {
+            if (entry.getKey().getUuid().equals(uuid)) {
+                if (entry.getValue() == REMOVED) {
+                    meta.remove(entry.getKey().getKey());
+                } else {
+                    meta.put(entry.getKey().getKey(), entry.getValue());
+                }
+            }
+        }
+        return meta;
+    }
+
+    /**
+     * Stop flushing in the background, and write everything
+     * that's still pending on the calling thread
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            if (executor != null) {
+                intervalTask.cancel(false);
+                executor.shutdown();
+            }
+        }
+        if (executor != null) {
+            try {
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    @Getter
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    public static final class Key {
+        private final String uuid;
+        private final String key;
+    }
+}
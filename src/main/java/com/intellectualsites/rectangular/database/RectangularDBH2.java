@@ -0,0 +1,96 @@
+package com.intellectualsites.rectangular.database;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.h2.jdbcx.JdbcDataSource;
+import org.polyjdbc.core.PolyJDBC;
+import org.polyjdbc.core.PolyJDBCBuilder;
+import org.polyjdbc.core.dialect.Dialect;
+import org.polyjdbc.core.dialect.DialectRegistry;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Embedded database, stored in a local file. Every query stays
+ * in process, so there's no network round trip. An in memory
+ * variant can stand in for MySQL in benchmarks and load tests
+ *
+ * @author Citymonstret
+ */
+public class RectangularDBH2 extends RectangularSQLDB {
+
+    @Getter
+    private final ConnectionPool connectionPool;
+
+    /**
+     * Create a file backed database
+     *
+     * @param file Database file, without the .mv.db extension
+     * @param prefix Table prefix
+     * @param poolSize Maximum amount of connections
+     */
+    public RectangularDBH2(@NonNull File file, String prefix, int poolSize) {
+        this("jdbc:h2:file:" + file.getAbsolutePath(), prefix, poolSize);
+    }
+
+    private RectangularDBH2(String url, String prefix, int poolSize) {
+        super(prefix);
+        JdbcDataSource dataSource = new JdbcDataSource();
+        // Keep the database open between connections, it's shut down in close().
+        // The page cache (in KB) keeps the region tables in memory after the first load
+        dataSource.setURL(url + ";MODE=MySQL;DB_CLOSE_DELAY=-1;CACHE_SIZE=65536");
+        dataSource.setUser("sa");
+        dataSource.setPassword("");
+        this.connectionPool = new ConnectionPool(dataSource, poolSize);
+    }
+
+    /**
+     * Create a database that only lives in memory, until it's closed
+     *
+     * @param name Database name, databases with the same name are shared
+     * @param prefix Table prefix
+     * @param poolSize Maximum amount of connections
+     * @return The database
+     */
+    public static RectangularDBH2 inMemory(String name, String prefix, int poolSize) {
+        return new RectangularDBH2("jdbc:h2:mem:" + name, prefix, poolSize);
+    }
+
+    @Override
+    protected PolyJDBC createConnection() {
+        Dialect dialect = DialectRegistry.H2.getDialect();
+        return PolyJDBCBuilder.polyJDBC(dialect).connectingToDataSource(getDataSource()).build();
+    }
+
+    @Override
+    protected DataSource getDataSource() {
+        return connectionPool;
+    }
+
+    @Override
+    protected String getPlayerMetaUpsert(int rows) {
+        StringBuilder sql = new StringBuilder("MERGE INTO ").append(getPlayerMetaTableName())
+                .append(" (uuid, mkey, value) KEY (uuid, mkey) VALUES ");
+        for (int i = 0; i < rows; i++) {
+            sql.append(i == 0 ? "(?, ?, ?)" : ", (?, ?, ?)");
+        }
+        return sql.toString();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        try (Connection connection = connectionPool.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("SHUTDOWN");
+        } catch (final SQLException e) {
+            e.printStackTrace();
+        }
+        connectionPool.close();
+    }
+
+}
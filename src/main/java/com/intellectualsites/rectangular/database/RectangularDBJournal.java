@@ -0,0 +1,617 @@
+package com.intellectualsites.rectangular.database;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.intellectualsites.rectangular.api.objects.Region;
+import com.intellectualsites.rectangular.core.Rectangle;
+import com.intellectualsites.rectangular.core.SimpleRegion;
+import com.intellectualsites.rectangular.data.RegionData;
+import com.intellectualsites.rectangular.vector.Vector2;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Local, log structured storage. Every mutation is applied to the
+ * in memory state and appended to a journal as a binary record, and
+ * the journal is written and fsynced in groups on its own thread, so
+ * writes never wait for the disk. Once the journal has grown large
+ * enough, the state is written to a checkpoint in the background and
+ * the journal segments before it are deleted. Startup loads the latest
+ * checkpoint and replays the segments after it
+ *
+ * @author Citymonstret
+ */
+public class RectangularDBJournal implements RectangularDB {
+
+    private static final int CHECKPOINT_MAGIC = 0x524a4350; // RJCP
+    private static final int CHECKPOINT_VERSION = 1;
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("journal-(\\d{8})\\.log");
+
+    private static final byte CREATE_REGION = 1;
+    private static final byte ADD_RECTANGLE = 2;
+    private static final byte REPLACE_RECTANGLES = 3;
+    private static final byte PLAYER_META = 4;
+
+    private final File directory;
+
+    @Getter
+    private final PlayerMetaQueue playerMetaQueue = new PlayerMetaQueue(this);
+
+    /**
+     * Journal size in bytes that triggers a checkpoint
+     */
+    @Getter
+    @Setter
+    private long compactSize = 8 * 1024 * 1024;
+
+    // Guards the state, and the order in which records reach the journal
+    private final Object lock = new Object();
+    private final Map<Integer, JournalRegion> regions = new HashMap<>();
+    // The inner maps are never changed, only replaced
+    private final Map<String, Map<String, byte[]>> playerMeta = new HashMap<>();
+    private int nextRegionID = 1;
+    private long revision = 0;
+
+    private JournalWriter writer;
+    private ScheduledExecutorService compactor;
+
+    public RectangularDBJournal(@NonNull File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public boolean testConnection() {
+        return directory.isDirectory() || directory.mkdirs();
+    }
+
+    /**
+     * Load the latest checkpoint, replay the journal after
+     * it, and start appending to the journal
+     */
+    @Override
+    public void createSchema() {
+        try {
+            int segment = 0;
+            final File checkpoint = new File(directory, "checkpoint.bin");
+            if (checkpoint.exists()) {
+                segment = readCheckpoint(checkpoint);
+            }
+            final List<Integer> segments = new ArrayList<>();
+            for (final int found : listSegments()) {
+                if (found < segment) {
+                    // Left behind by a compaction that was cut short
+                    Files.deleteIfExists(JournalWriter.getSegmentFile(directory, found).toPath());
+                } else {
+                    segments.add(found);
+                }
+            }
+            for (int i = 0; i < segments.size(); i++) {
+                replaySegment(JournalWriter.getSegmentFile(directory, segments.get(i)), i == segments.size() - 1);
+            }
+            writer = new JournalWriter(directory, segments.isEmpty() ? segment : segments.get(segments.size() - 1));
+        } catch (final IOException e) {
+            throw new IllegalStateException("Failed to open the journal in " + directory, e);
+        }
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "Rectangular Journal Compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                // A failed writer can't start a new segment, so it can't be compacted
+                if (writer.getFailure() == null && getJournalSize() >= compactSize) {
+                    compact();
+                }
+            } catch (final Exception e) {
+                e.printStackTrace();
+            }
+        }, 10, 10, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void close() {
+        // Drains the player meta queue into the journal
+        playerMetaQueue.close();
+        if (compactor != null) {
+            compactor.shutdown();
+            try {
+                compactor.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    @Override
+    public long getRevision() {
+        synchronized (lock) {
+            return revision;
+        }
+    }
+
+    @Override
+    public Region createRegion(String uuid, String containerId, Collection<Rectangle> rectangles) {
+        final int regionID;
+        synchronized (lock) {
+            regionID = nextRegionID;
+            commit(record(out -> {
+                out.writeByte(CREATE_REGION);
+                out.writeInt(regionID);
+                out.writeUTF(containerId);
+                out.writeUTF(uuid);
+                writeRectangles(out, rectangles);
+            }));
+        }
+        Region region = new SimpleRegion(regionID, REGION_LEVEL, containerId);
+        region.setRectangles(rectangles);
+        region.setData(new RegionData(regionID, uuid, ImmutableMap.of("owner", uuid)));
+        return region;
+    }
+
+    @Override
+    public void addRectangle(int regionId, Rectangle rectangle) {
+        commit(record(out -> {
+            out.writeByte(ADD_RECTANGLE);
+            out.writeInt(regionId);
+            writeRectangle(out, rectangle);
+        }));
+    }
+
+    @Override
+    public void replaceRectangles(int regionId, Collection<Rectangle> rectangles) {
+        commit(record(out -> {
+            out.writeByte(REPLACE_RECTANGLES);
+            out.writeInt(regionId);
+            writeRectangles(out, rectangles);
+        }));
+    }
+
+    @Override
+    public void writePlayerMeta(Map<PlayerMetaQueue.Key, byte[]> changes) {
+        // One record for the whole batch, so it's replayed all or nothing
+        commit(record(out -> {
+            out.writeByte(PLAYER_META);
+            out.writeInt(changes.size());
+            for (Map.Entry<PlayerMetaQueue.Key, byte[]> change : changes.entrySet()) {
+                out.writeUTF(change.getKey().getUuid());
+                out.writeUTF(change.getKey().getKey());
+                if (change.getValue() == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(change.getValue().length);
+                    out.write(change.getValue());
+                }
+            }
+        }));
+    }
+
+    @Override
+    public Map<String, byte[]> readPlayerMeta(String uuid) {
+        synchronized (lock) {
+            Map<String, byte[]> meta = playerMeta.get(uuid);
+            return meta == null ? new HashMap<>() : new HashMap<>(meta);
+        }
+    }
+
+    @Override
+    public RegionData loadRegionData(int regionID) {
+        JournalRegion region;
+        synchronized (lock) {
+            region = regions.get(regionID);
+        }
+        return region == null ? null : region.createData();
+    }
+
+    @Override
+    public ImmutableSet<Rectangle> loadRectangles() {
+        ImmutableSet.Builder<Rectangle> builder = ImmutableSet.builder();
+        synchronized (lock) {
+            for (JournalRegion region : regions.values()) {
+                builder.addAll(region.rectangles);
+            }
+        }
+        return builder.build();
+    }
+
+    @Override
+    public ImmutableSet<Region> loadRegions() {
+        ImmutableSet.Builder<Region> builder = ImmutableSet.builder();
+        streamRegions(builder::add);
+        return builder.build();
+    }
+
+    @Override
+    public void streamRegions(Collection<String> containerIds, Consumer<Region> consumer) {
+        Set<String> containers = containerIds == null ? null : new HashSet<>(containerIds);
+        List<JournalRegion> matching = new ArrayList<>();
+        synchronized (lock) {
+            for (JournalRegion region : regions.values()) {
+                if (containers == null || containers.contains(region.containerId)) {
+                    matching.add(region);
+                }
+            }
+        }
+        matching.sort(Comparator.comparingInt(region -> region.id));
+        for (JournalRegion journalRegion : matching) {
+            Region region = new SimpleRegion(journalRegion.id, REGION_LEVEL, journalRegion.containerId);
+            region.setRectangles(journalRegion.rectangles);
+            region.setData(journalRegion.createData());
+            consumer.accept(region);
+        }
+    }
+
+    /**
+     * Wait until every write made so far is on disk
+     *
+     * @param timeout Time to wait, in milliseconds
+     * @return True if everything was written in time, false if
+     *         it timed out or the journal failed to write
+     */
+    public boolean sync(long timeout) {
+        try {
+            return writer.sync(timeout);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Write a checkpoint of the current state, and delete the journal
+     * segments that it replaces. Writes continue while this is running
+     *
+     * @throws IOException If the checkpoint couldn't be written
+     */
+    public void compact() throws IOException {
+        final Map<Integer, JournalRegion> regionCopy;
+        final Map<String, Map<String, byte[]>> playerCopy;
+        final int nextRegionCopy;
+        final long revisionCopy;
+        final CompletableFuture<Integer> rotated;
+        synchronized (lock) {
+            // Everything in this copy is in the segments before the rotation
+            regionCopy = new HashMap<>(regions);
+            playerCopy = new HashMap<>(playerMeta);
+            nextRegionCopy = nextRegionID;
+            revisionCopy = revision;
+            rotated = writer.rotate();
+        }
+        final int segment;
+        try {
+            segment = rotated.get(60, TimeUnit.SECONDS);
+        } catch (final Exception e) {
+            throw new IOException("The journal writer didn't start a new segment", e);
+        }
+
+        final File checkpoint = new File(directory, "checkpoint.bin");
+        final File temporary = new File(directory, "checkpoint.bin.tmp");
+        try (FileOutputStream file = new FileOutputStream(temporary);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeInt(CHECKPOINT_VERSION);
+            out.writeInt(segment);
+            out.writeLong(revisionCopy);
+            out.writeInt(nextRegionCopy);
+            out.writeInt(regionCopy.size());
+            for (JournalRegion region : regionCopy.values()) {
+                out.writeInt(region.id);
+                out.writeUTF(region.containerId);
+                writeRectangles(out, region.rectangles);
+                out.writeInt(region.meta.size());
+                for (Map.Entry<String, String> entry : region.meta.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(entry.getValue());
+                }
+            }
+            out.writeInt(playerCopy.size());
+            for (Map.Entry<String, Map<String, byte[]>> player : playerCopy.entrySet()) {
+                out.writeUTF(player.getKey());
+                out.writeInt(player.getValue().size());
+                for (Map.Entry<String, byte[]> entry : player.getValue().entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().length);
+                    out.write(entry.getValue());
+                }
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temporary.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        for (final int old : listSegments()) {
+            if (old < segment) {
+                Files.deleteIfExists(JournalWriter.getSegmentFile(directory, old).toPath());
+            }
+        }
+    }
+
+    private long getJournalSize() {
+        long size = 0;
+        for (final int segment : listSegments()) {
+            size += JournalWriter.getSegmentFile(directory, segment).length();
+        }
+        return size;
+    }
+
+    private List<Integer> listSegments() {
+        final List<Integer> segments = new ArrayList<>();
+        final String[] names = directory.list();
+        if (names != null) {
+            for (final String name : names) {
+                final Matcher matcher = SEGMENT_NAME.matcher(name);
+                if (matcher.matches()) {
+                    segments.add(Integer.parseInt(matcher.group(1)));
+                }
+            }
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    private int readCheckpoint(final File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != CHECKPOINT_MAGIC) {
+                throw new IOException("Not a journal checkpoint: " + file);
+            }
+            final int version = in.readInt();
+            if (version != CHECKPOINT_VERSION) {
+                throw new IOException("Unsupported checkpoint version: " + version);
+            }
+            final int segment = in.readInt();
+            revision = in.readLong();
+            nextRegionID = in.readInt();
+            final int regionCount = in.readInt();
+            for (int i = 0; i < regionCount; i++) {
+                final int id = in.readInt();
+                final String containerId = in.readUTF();
+                final ImmutableList<Rectangle> rectangles = readRectangles(in, id);
+                final int metaCount = in.readInt();
+                final ImmutableMap.Builder<String, String> meta = ImmutableMap.builder();
+                for (int m = 0; m < metaCount; m++) {
+                    meta.put(in.readUTF(), in.readUTF());
+                }
+                regions.put(id, new JournalRegion(id, containerId, rectangles, meta.build()));
+            }
+            final int playerCount = in.readInt();
+            for (int i = 0; i < playerCount; i++) {
+                final String uuid = in.readUTF();
+                final int metaCount = in.readInt();
+                final Map<String, byte[]> meta = new HashMap<>();
+                for (int m = 0; m < metaCount; m++) {
+                    final String key = in.readUTF();
+                    final byte[] value = new byte[in.readInt()];
+                    in.readFully(value);
+                    meta.put(key, value);
+                }
+                playerMeta.put(uuid, meta);
+            }
+            return segment;
+        } catch (final EOFException e) {
+            throw new IOException("Truncated journal checkpoint: " + file, e);
+        }
+    }
+
+    /**
+     * Apply every record in a segment. A torn record at the end of the last
+     * segment is what a crash during a write leaves behind, it's cut off
+     */
+    private void replaySegment(final File file, final boolean last) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        final CRC32 crc = new CRC32();
+        while (buffer.remaining() >= JournalWriter.FRAME_HEADER) {
+            final int start = buffer.position();
+            final int length = buffer.getInt();
+            final int checksum = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+            final byte[] record = new byte[length];
+            buffer.get(record);
+            crc.reset();
+            crc.update(record, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                buffer.position(start);
+                break;
+            }
+            apply(record);
+        }
+        if (buffer.hasRemaining()) {
+            if (!last) {
+                throw new IOException("Corrupt journal segment: " + file);
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(buffer.position());
+            }
+        }
+    }
+
+    /**
+     * Queue a record for the journal, and apply it to the state. Both
+     * happen under the lock, so the journal has the same order. A record
+     * that the journal refuses is never applied
+     */
+    private void commit(final byte[] record) {
+        if (writer == null) {
+            throw new IllegalStateException("The journal hasn't been opened");
+        }
+        synchronized (lock) {
+            writer.append(record);
+            apply(record);
+        }
+    }
+
+    private void apply(final byte[] record) {
+        try {
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            final byte type = in.readByte();
+            synchronized (lock) {
+                switch (type) {
+                    case CREATE_REGION: {
+                        final int id = in.readInt();
+                        final String containerId = in.readUTF();
+                        final String owner = in.readUTF();
+                        regions.put(id, new JournalRegion(id, containerId, readRectangles(in, id),
+                                ImmutableMap.of("owner", owner)));
+                        nextRegionID = Math.max(nextRegionID, id + 1);
+                        revision++;
+                        break;
+                    }
+                    case ADD_RECTANGLE: {
+                        final int id = in.readInt();
+                        final Rectangle rectangle = readRectangle(in, id);
+                        final JournalRegion region = regions.get(id);
+                        if (region != null) {
+                            regions.put(id, region.withRectangles(ImmutableList.<Rectangle>builder()
+                                    .addAll(region.rectangles).add(rectangle).build()));
+                        }
+                        revision++;
+                        break;
+                    }
+                    case REPLACE_RECTANGLES: {
+                        final int id = in.readInt();
+                        final ImmutableList<Rectangle> rectangles = readRectangles(in, id);
+                        final JournalRegion region = regions.get(id);
+                        if (region != null) {
+                            regions.put(id, region.withRectangles(rectangles));
+                        }
+                        revision++;
+                        break;
+                    }
+                    case PLAYER_META: {
+                        final int count = in.readInt();
+                        for (int i = 0; i < count; i++) {
+                            final String uuid = in.readUTF();
+                            final String key = in.readUTF();
+                            final int length = in.readInt();
+                            final Map<String, byte[]> meta = playerMeta.containsKey(uuid)
+                                    ? new HashMap<>(playerMeta.get(uuid)) : new HashMap<>();
+                            if (length < 0) {
+                                meta.remove(key);
+                            } else {
+                                final byte[] value = new byte[length];
+                                in.readFully(value);
+                                meta.put(key, value);
+                            }
+                            if (meta.isEmpty()) {
+                                playerMeta.remove(uuid);
+                            } else {
+                                playerMeta.put(uuid, meta);
+                            }
+                        }
+                        break;
+                    }
+                    default:
+                        throw new IOException("Unknown journal record type: " + type);
+                }
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException("Malformed journal record", e);
+        }
+    }
+
+    private static byte[] record(final RecordWriter recordWriter) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try {
+            recordWriter.write(new DataOutputStream(bytes));
+        } catch (final IOException e) {
+            // Can't happen when writing to memory
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeRectangle(final DataOutputStream out, final Rectangle rectangle) throws IOException {
+        out.writeInt(rectangle.getMin().getX());
+        out.writeInt(rectangle.getMin().getY());
+        out.writeInt(rectangle.getMax().getX());
+        out.writeInt(rectangle.getMax().getY());
+    }
+
+    private static void writeRectangles(final DataOutputStream out, final Collection<Rectangle> rectangles)
+            throws IOException {
+        out.writeInt(rectangles.size());
+        for (final Rectangle rectangle : rectangles) {
+            writeRectangle(out, rectangle);
+        }
+    }
+
+    private static Rectangle readRectangle(final DataInputStream in, final int regionID) throws IOException {
+        final int minX = in.readInt(), minY = in.readInt();
+        return new Rectangle(regionID, new Vector2(minX, minY), new Vector2(in.readInt(), in.readInt()));
+    }
+
+    private static ImmutableList<Rectangle> readRectangles(final DataInputStream in, final int regionID)
+            throws IOException {
+        final int count = in.readInt();
+        final ImmutableList.Builder<Rectangle> builder = ImmutableList.builder();
+        for (int i = 0; i < count; i++) {
+            builder.add(readRectangle(in, regionID));
+        }
+        return builder.build();
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Stored region, never changed once created
+     */
+    @RequiredArgsConstructor
+    private static final class JournalRegion {
+        private final int id;
+        private final String containerId;
+        private final ImmutableList<Rectangle> rectangles;
+        private final ImmutableMap<String, String> meta;
+
+        private JournalRegion withRectangles(final ImmutableList<Rectangle> rectangles) {
+            return new JournalRegion(id, containerId, rectangles, meta);
+        }
+
+        private RegionData createData() {
+            return new RegionData(id, meta.get("owner"), meta);
+        }
+    }
+}
@@ -2,35 +2,46 @@ package com.intellectualsites.rectangular.database;
 
 import com.mysql.jdbc.jdbc2.optional.MysqlDataSource;
 
+import lombok.Getter;
 import org.polyjdbc.core.PolyJDBC;
 import org.polyjdbc.core.PolyJDBCBuilder;
 import org.polyjdbc.core.dialect.Dialect;
 import org.polyjdbc.core.dialect.DialectRegistry;
 
-public class RectangularDBMySQL extends RectangularDB {
+import javax.sql.DataSource;
 
-    private final String database, user, password, host;
-    private final int port;
+public class RectangularDBMySQL extends RectangularSQLDB {
+
+    @Getter
+    private final ConnectionPool connectionPool;
 
     public RectangularDBMySQL(String database, String user, String password,
-                              String host, int port, String prefix) {
+                              String host, int port, String prefix, int poolSize) {
         super(prefix);
-        this.database = database;
-        this.user = user;
-        this.password = password;
-        this.host = host;
-        this.port = port;
+        MysqlDataSource dataSource = new MysqlDataSource();
+        // Without cursor fetching, the driver reads the entire result set at once,
+        // and without rewriting, batches are sent one statement at a time
+        dataSource.setURL("jdbc:mysql://" + host + ":" + port + "/" + database + "?useCursorFetch=true&rewriteBatchedStatements=true");
+        dataSource.setUser(user);
+        dataSource.setPassword(password);
+        this.connectionPool = new ConnectionPool(dataSource, poolSize);
     }
 
     @Override
     protected PolyJDBC createConnection() {
         Dialect dialect = DialectRegistry.MYSQL.getDialect();
-        MysqlDataSource mysqlDataSource = new MysqlDataSource();
-        mysqlDataSource.setURL("jdbc:mysql://" + host + ":" + port + "/" + database);
-        mysqlDataSource.setUser(user);
-        mysqlDataSource.setPassword(password);
-        return PolyJDBCBuilder.polyJDBC(dialect).connectingToDataSource(mysqlDataSource).build();
+        return PolyJDBCBuilder.polyJDBC(dialect).connectingToDataSource(getDataSource()).build();
+    }
+
+    @Override
+    protected DataSource getDataSource() {
+        return connectionPool;
     }
 
+    @Override
+    public void close() {
+        super.close();
+        connectionPool.close();
+    }
 
 }
@@ -0,0 +1,600 @@
+package com.intellectualsites.rectangular.database;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.intellectualsites.rectangular.api.objects.Region;
+import com.intellectualsites.rectangular.core.Rectangle;
+import com.intellectualsites.rectangular.core.SimpleRegion;
+import com.intellectualsites.rectangular.data.RegionData;
+import com.intellectualsites.rectangular.vector.Vector2;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import org.polyjdbc.core.PolyJDBC;
+import org.polyjdbc.core.query.*;
+import org.polyjdbc.core.query.mapper.ObjectMapper;
+import org.polyjdbc.core.schema.SchemaInspector;
+import org.polyjdbc.core.schema.SchemaManager;
+import org.polyjdbc.core.schema.model.Schema;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Storage in an SQL database, the tables are created
+ * and migrated on startup
+ */
+@RequiredArgsConstructor
+public abstract class RectangularSQLDB implements RectangularDB {
+
+    private final String prefix;
+
+    public String getMainTableName() {
+        return prefix + "region";
+    }
+
+    public String getRectangleTableName() {
+        return prefix + "rectangle";
+    }
+
+    public String getRegionMetaTableName() {
+        return prefix + "meta";
+    }
+
+    public String getPlayerMetaTableName() {
+        return prefix + "player";
+    }
+
+    public String getStateTableName() {
+        return prefix + "state";
+    }
+
+    public String getSchemaTableName() {
+        return prefix + "schema";
+    }
+
+    // Rows per multi-row insert, keeps the statements well below max_allowed_packet
+    private static final int META_INSERT_ROWS = 500;
+
+    private PolyJDBC polyJDBC;
+
+    @Getter
+    private final PlayerMetaQueue playerMetaQueue = new PlayerMetaQueue(this);
+
+    /**
+     * Amount of rows that the driver fetches at a time,
+     * when streaming through a cursor
+     */
+    @Getter
+    @Setter
+    private int fetchSize = 1000;
+
+    public PolyJDBC getPolyJDBC() {
+        if (polyJDBC == null) {
+            polyJDBC = createConnection();
+        }
+        return polyJDBC;
+    }
+
+    @Override
+    public boolean testConnection() {
+        try {
+            PolyJDBC jdbc = getPolyJDBC();
+            if (jdbc == null) {
+                return false;
+            }
+        } catch (final Exception e) {
+            return false;
+        }
+        return true;
+    }
+
+    protected abstract PolyJDBC createConnection();
+
+    /**
+     * Get the data source behind the connection, used
+     * for streaming queries that polyjdbc can't express
+     *
+     * @return Data source
+     */
+    protected abstract DataSource getDataSource();
+
+    @Override
+    public void close() {
+        playerMetaQueue.close();
+    }
+
+    @Override
+    public void createSchema() {
+        SchemaManager schemaManager = null;
+        try {
+            schemaManager = getPolyJDBC().schemaManager();
+            Schema schema = new Schema(polyJDBC.dialect());
+            if (!schemaExists(getMainTableName())) {
+                schema.addRelation(getMainTableName())
+                        .withAttribute().integer("region_id")
+                        .withAdditionalModifiers("AUTO_INCREMENT").notNull().and()
+                        .withAttribute().string("container_id").notNull().withMaxLength(32).and()
+                        .primaryKey("pk_" + getMainTableName()).using("region_id").and().build();
+            }
+            if (!schemaExists(getRectangleTableName())) {
+                schema.addRelation(getRectangleTableName())
+                        .withAttribute().integer("rectangle_id")
+                        .withAdditionalModifiers("AUTO_INCREMENT").notNull().and()
+                        .withAttribute().integer("region_region_id").and()
+                        .withAttribute().integer("minX").withDefaultValue(0).and()
+                        .withAttribute().integer("maxX").withDefaultValue(0).and()
+                        .withAttribute().integer("minY").withDefaultValue(0).and()
+                        .withAttribute().integer("maxY").withDefaultValue(0).and()
+                        .primaryKey("pk_" + getRectangleTableName()).using("rectangle_id").and()
+                        .foreignKey("fk_" + getRectangleTableName()).on("region_region_id")
+                        .references(getMainTableName(), "region_id").and()
+                        .build();
+            }
+            if (!schemaExists(getRegionMetaTableName())) {
+                schema.addRelation(getRegionMetaTableName())
+                        .withAttribute().integer("meta_id").withAdditionalModifiers("AUTO_INCREMENT")
+                        .notNull().and()
+                        .withAttribute().integer("region_region_id").and()
+                        .withAttribute().string("mkey").notNull().withMaxLength(32).and()
+                        .withAttribute().string("value").notNull().withMaxLength(255).and()
+                        .primaryKey("pk_" + getRegionMetaTableName()).using("meta_id").and()
+                        .foreignKey("fk_" + getRegionMetaTableName()).on("region_region_id")
+                        .references(getMainTableName(), "region_id").and()
+                        .build();
+            }
+            if (!schemaExists(getPlayerMetaTableName())) {
+                schema.addRelation(getPlayerMetaTableName())
+                        .withAttribute().integer("player_meta_id").withAdditionalModifiers("AUTO_INCREMENT")
+                        .notNull().and()
+                        .withAttribute().string("uuid").notNull().withMaxLength(48).and()
+                        .withAttribute().string("mkey").notNull().withMaxLength(32).and()
+                        .withAttribute().string("value").notNull().withMaxLength(255).and()
+                        .primaryKey("pk_" + getPlayerMetaTableName()).using("player_meta_id").and()
+                        .build();
+            }
+            boolean createState = !schemaExists(getStateTableName());
+            if (createState) {
+                schema.addRelation(getStateTableName())
+                        .withAttribute().integer("state_id").notNull().and()
+                        .withAttribute().integer("revision").withDefaultValue(0).and()
+                        .primaryKey("pk_" + getStateTableName()).using("state_id").and()
+                        .build();
+            }
+            boolean createSchemaVersion = !schemaExists(getSchemaTableName());
+            if (createSchemaVersion) {
+                schema.addRelation(getSchemaTableName())
+                        .withAttribute().integer("version").notNull().and()
+                        .build();
+            }
+            schemaManager.create(schema);
+            if (createState) {
+                InsertQuery query = getPolyJDBC().query().insert().into(getStateTableName())
+                        .value("state_id", 1).value("revision", 0);
+                getPolyJDBC().simpleQueryRunner().insert(query);
+            }
+            if (createSchemaVersion) {
+                InsertQuery query = getPolyJDBC().query().insert().into(getSchemaTableName())
+                        .value("version", 0);
+                getPolyJDBC().simpleQueryRunner().insert(query);
+            }
+        } finally {
+            polyJDBC.close(schemaManager);
+        }
+        migrateSchema();
+    }
+
+    /**
+     * Changes to the tables made after they were first created. Migration n
+     * brings the tables to schema version n + 1, and every migration is only
+     * ever run once. Never change a migration, add a new one instead
+     *
+     * @return Statements of every migration, in order
+     */
+    protected List<String[]> getMigrations() {
+        return Arrays.<String[]>asList(
+                // 1: Look up rectangles and meta by region, and player meta by uuid
+                new String[] {
+                        "CREATE INDEX " + prefix + "idx_rectangle_region ON "
+                                + getRectangleTableName() + " (region_region_id)",
+                        "CREATE INDEX " + prefix + "idx_meta_region ON "
+                                + getRegionMetaTableName() + " (region_region_id, mkey)",
+                        // Keys used to be written twice, keep the newest row
+                        "DELETE FROM " + getPlayerMetaTableName() + " WHERE player_meta_id NOT IN"
+                                + " (SELECT newest FROM (SELECT MAX(player_meta_id) AS newest FROM "
+                                + getPlayerMetaTableName() + " GROUP BY uuid, mkey) AS newest_rows)",
+                        // Also serves lookups by uuid alone
+                        "CREATE UNIQUE INDEX " + prefix + "uq_player_meta ON "
+                                + getPlayerMetaTableName() + " (uuid, mkey)"
+                }
+        );
+    }
+
+    /**
+     * Run all migrations that haven't been run yet. The version is bumped
+     * after every migration, so a failure leaves the earlier ones applied
+     */
+    private void migrateSchema() {
+        List<String[]> migrations = getMigrations();
+        try (Connection connection = getDataSource().getConnection()) {
+            int version;
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT version FROM " + getSchemaTableName())) {
+                version = resultSet.next() ? resultSet.getInt("version") : 0;
+            }
+            for (; version < migrations.size(); version++) {
+                try (Statement statement = connection.createStatement()) {
+                    for (String sql : migrations.get(version)) {
+                        statement.executeUpdate(sql);
+                    }
+                    statement.executeUpdate("UPDATE " + getSchemaTableName() + " SET version = " + (version + 1));
+                }
+            }
+        } catch (final SQLException e) {
+            throw new IllegalStateException("Failed to migrate the schema", e);
+        }
+    }
+
+    @Override
+    public long getRevision() {
+        SelectQuery query = getPolyJDBC().query().select("revision").from(getStateTableName())
+                .where("state_id = 1");
+        return getPolyJDBC().simpleQueryRunner().queryUnique(query, resultSet -> resultSet.getLong("revision"));
+    }
+
+    private void bumpRevision(Connection connection) throws SQLException {
+        // polyjdbc can only set values, not expressions
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("UPDATE " + getStateTableName() + " SET revision = revision + 1 WHERE state_id = 1");
+        }
+    }
+
+    public boolean schemaExists(String schemaName) {
+        SchemaInspector inspector = null;
+        boolean exists = false;
+        try {
+            inspector = getPolyJDBC().schemaInspector();
+            exists = inspector.relationExists(schemaName);
+        } finally {
+            getPolyJDBC().close(inspector);
+        }
+        return exists;
+    }
+
+    @Override
+    public ImmutableSet<Rectangle> loadRectangles() {
+        SelectQuery query = getPolyJDBC().query().selectAll().from(getRectangleTableName());
+        return ImmutableSet.copyOf(getPolyJDBC().simpleQueryRunner().querySet(query, rectangleMapper));
+    }
+
+    private final ObjectMapper<Rectangle> rectangleMapper = resultSet ->
+            new Rectangle(resultSet.getInt("region_region_id"),
+            new Vector2(resultSet.getInt("minX"), resultSet.getInt("minY")),
+                    new Vector2(resultSet.getInt("maxX"), resultSet.getInt("maxY")));
+
+    private final ObjectMapper<Region> regionMapper = resultSet ->
+            new SimpleRegion(resultSet.getInt("region_id"), REGION_LEVEL, resultSet.getString("container_id"));
+
+    private final ObjectMapper<RegionData> regionDataMapper = resultSet -> {
+        ImmutableMap.Builder<String, String> builder = new ImmutableMap.Builder<>();
+        boolean cont = true;
+
+        int regionID = -1;
+
+        while (cont) {
+            regionID = resultSet.getInt("region_region_id");
+            builder.put(resultSet.getString("mkey"), resultSet.getString("value"));
+            cont = resultSet.next();
+        }
+        Map<String, String> map = builder.build();
+        return new RegionData(regionID, map.get("owner"), map);
+    };
+
+    private final ObjectMapper<Map<String, byte[]>> playerMetaMapper = resultSet -> {
+
+        Map<String, byte[]> map = new HashMap<>();
+
+        boolean cont = true;
+        while (cont) {
+            map.put(resultSet.getString("mkey"), resultSet.getString("value").getBytes());
+            cont = resultSet.next();
+        }
+
+        return map;
+    };
+
+    /**
+     * Create a region along with its rectangles and owner, in a single
+     * transaction. The ID is read from the generated keys, and the
+     * region data is built locally rather than read back
+     *
+     * @param uuid Owner UUID
+     * @param containerId Container ID, such as: w:test_world
+     * @param rectangles Rectangles of the region
+     * @return The created region, which isn't compiled
+     */
+    @Override
+    public Region createRegion(String uuid, String containerId, Collection<Rectangle> rectangles) {
+        int regionID;
+        try (Connection connection = getDataSource().getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + getMainTableName()
+                        + " (container_id) VALUES (?)", Statement.RETURN_GENERATED_KEYS)) {
+                    insert.setString(1, containerId);
+                    insert.executeUpdate();
+                    try (ResultSet keys = insert.getGeneratedKeys()) {
+                        if (!keys.next()) {
+                            throw new SQLException("No region ID was generated");
+                        }
+                        regionID = keys.getInt(1);
+                    }
+                }
+                insertRectangles(connection, regionID, rectangles);
+                try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + getRegionMetaTableName()
+                        + " (region_region_id, mkey, value) VALUES (?, ?, ?)")) {
+                    insert.setInt(1, regionID);
+                    insert.setString(2, "owner");
+                    insert.setString(3, uuid);
+                    insert.executeUpdate();
+                }
+                bumpRevision(connection);
+                connection.commit();
+            } catch (final SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (final SQLException e) {
+            throw new IllegalStateException("Failed to create region", e);
+        }
+        Region region = new SimpleRegion(regionID, REGION_LEVEL, containerId);
+        region.setRectangles(rectangles);
+        region.setData(new RegionData(regionID, uuid, Collections.singletonMap("owner", uuid)));
+        return region;
+    }
+
+    @Override
+    public void addRectangle(int regionId, Rectangle rectangle) {
+        writeRectangles(regionId, Collections.singleton(rectangle), false);
+    }
+
+    /**
+     * Replace all rectangles of a region, in a single transaction
+     *
+     * @param regionId Region ID
+     * @param rectangles The new rectangles
+     */
+    @Override
+    public void replaceRectangles(int regionId, Collection<Rectangle> rectangles) {
+        writeRectangles(regionId, rectangles, true);
+    }
+
+    /**
+     * Write rectangles and bump the revision in the same transaction,
+     * so the revision never disagrees with the rectangle table
+     */
+    private void writeRectangles(int regionId, Collection<Rectangle> rectangles, boolean replace) {
+        try (Connection connection = getDataSource().getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                if (replace) {
+                    try (PreparedStatement delete = connection.prepareStatement("DELETE FROM "
+                            + getRectangleTableName() + " WHERE region_region_id = ?")) {
+                        delete.setInt(1, regionId);
+                        delete.executeUpdate();
+                    }
+                }
+                insertRectangles(connection, regionId, rectangles);
+                bumpRevision(connection);
+                connection.commit();
+            } catch (final SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (final SQLException e) {
+            throw new IllegalStateException("Failed to write the rectangles", e);
+        }
+    }
+
+    private void insertRectangles(Connection connection, int regionId, Collection<Rectangle> rectangles)
+            throws SQLException {
+        if (rectangles.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + getRectangleTableName()
+                + " (region_region_id, minX, maxX, minY, maxY) VALUES (?, ?, ?, ?, ?)")) {
+            for (Rectangle rectangle : rectangles) {
+                insert.setInt(1, regionId);
+                insert.setInt(2, rectangle.getMin().getX());
+                insert.setInt(3, rectangle.getMax().getX());
+                insert.setInt(4, rectangle.getMin().getY());
+                insert.setInt(5, rectangle.getMax().getY());
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    /**
+     * Write a batch of player meta changes in a single transaction. Removed
+     * keys are deleted in one batch, and the new values are written with
+     * multi-row upserts against the unique (uuid, mkey) index
+     *
+     * @param changes New values, null values remove the key
+     */
+    @Override
+    public void writePlayerMeta(Map<PlayerMetaQueue.Key, byte[]> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        List<PlayerMetaQueue.Key> removed = new ArrayList<>();
+        List<Map.Entry<PlayerMetaQueue.Key, byte[]>> written = new ArrayList<>();
+        for (Map.Entry<PlayerMetaQueue.Key, byte[]> entry : changes.entrySet()) {
+            if (entry.getValue() == null) {
+                removed.add(entry.getKey());
+            } else {
+                written.add(entry);
+            }
+        }
+        try (Connection connection = getDataSource().getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                if (!removed.isEmpty()) {
+                    try (PreparedStatement delete = connection.prepareStatement("DELETE FROM "
+                            + getPlayerMetaTableName() + " WHERE uuid = ? AND mkey = ?")) {
+                        for (PlayerMetaQueue.Key key : removed) {
+                            delete.setString(1, key.getUuid());
+                            delete.setString(2, key.getKey());
+                            delete.addBatch();
+                        }
+                        delete.executeBatch();
+                    }
+                }
+                for (int offset = 0; offset < written.size(); offset += META_INSERT_ROWS) {
+                    List<Map.Entry<PlayerMetaQueue.Key, byte[]>> rows =
+                            written.subList(offset, Math.min(written.size(), offset + META_INSERT_ROWS));
+                    try (PreparedStatement upsert = connection.prepareStatement(getPlayerMetaUpsert(rows.size()))) {
+                        int parameter = 1;
+                        for (Map.Entry<PlayerMetaQueue.Key, byte[]> row : rows) {
+                            upsert.setString(parameter++, row.getKey().getUuid());
+                            upsert.setString(parameter++, row.getKey().getKey());
+                            upsert.setString(parameter++, new String(row.getValue()));
+                        }
+                        upsert.executeUpdate();
+                    }
+                }
+                connection.commit();
+            } catch (final SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (final SQLException e) {
+            throw new IllegalStateException("Failed to write player meta", e);
+        }
+    }
+
+    /**
+     * Get the statement that inserts or replaces player meta rows,
+     * the parameters are uuid, mkey and value of every row
+     *
+     * @param rows Amount of rows
+     * @return Upsert statement
+     */
+    protected String getPlayerMetaUpsert(int rows) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(getPlayerMetaTableName())
+                .append(" (uuid, mkey, value) VALUES ");
+        for (int i = 0; i < rows; i++) {
+            sql.append(i == 0 ? "(?, ?, ?)" : ", (?, ?, ?)");
+        }
+        return sql.append(" ON DUPLICATE KEY UPDATE value = VALUES(value)").toString();
+    }
+
+    @Override
+    public Map<String, byte[]> readPlayerMeta(String uuid) {
+        SelectQuery query = getPolyJDBC().query().selectAll().from(getPlayerMetaTableName()).where("uuid = :uuid").withArgument("uuid", uuid);
+        List<Map<String, byte[]>> metaList = getPolyJDBC().simpleQueryRunner().queryList(query, playerMetaMapper);
+        return metaList.isEmpty() ? new HashMap<>() : metaList.get(0);
+    }
+
+    @Override
+    public RegionData loadRegionData(int regionID) {
+        SelectQuery query = getPolyJDBC().query().selectAll().from(getRegionMetaTableName())
+                .where("region_region_id = :rid").withArgument("rid", regionID);
+        return getPolyJDBC().simpleQueryRunner().queryUnique(query, regionDataMapper);
+    }
+
+    @Override
+    public ImmutableSet<Region> loadRegions() {
+        SelectQuery query = getPolyJDBC().query().selectAll().from(getMainTableName());
+        return ImmutableSet.copyOf(getPolyJDBC().simpleQueryRunner().querySet(query, regionMapper));
+    }
+
+    /**
+     * The regions, rectangles and meta rows are read through three forward-only
+     * cursors ordered by region ID. Only the rows of one region are kept in memory
+     * <p>
+     * The cursors share a single connection, so loading never waits on the
+     * pool while holding a connection of its own
+     */
+    @Override
+    public void streamRegions(Collection<String> containerIds, Consumer<Region> consumer) {
+        if (containerIds != null && containerIds.isEmpty()) {
+            return;
+        }
+        String containerFilter = containerIds == null ? null : "container_id IN ("
+                + String.join(", ", Collections.nCopies(containerIds.size(), "?")) + ")";
+        String regionFilter = containerIds == null ? "" : " WHERE " + containerFilter;
+        String rowFilter = containerIds == null ? "" : " WHERE region_region_id IN (SELECT region_id FROM "
+                + getMainTableName() + " WHERE " + containerFilter + ")";
+        try (Connection connection = getDataSource().getConnection();
+             PreparedStatement regionStatement = prepareCursor(connection, "SELECT region_id, container_id FROM "
+                     + getMainTableName() + regionFilter + " ORDER BY region_id", containerIds);
+             PreparedStatement rectangleStatement = prepareCursor(connection, "SELECT region_region_id, minX, minY, maxX, maxY FROM "
+                     + getRectangleTableName() + rowFilter + " ORDER BY region_region_id", containerIds);
+             PreparedStatement metaStatement = prepareCursor(connection, "SELECT region_region_id, mkey, value FROM "
+                     + getRegionMetaTableName() + rowFilter + " ORDER BY region_region_id", containerIds);
+             ResultSet regionSet = regionStatement.executeQuery();
+             ResultSet rectangleSet = rectangleStatement.executeQuery();
+             ResultSet metaSet = metaStatement.executeQuery()) {
+            boolean hasRectangle = rectangleSet.next();
+            boolean hasMeta = metaSet.next();
+            while (regionSet.next()) {
+                Region region = regionMapper.createObject(regionSet);
+                int regionID = region.getId();
+
+                // Rows that belong to regions which don't exist are skipped
+                List<Rectangle> rectangles = new ArrayList<>();
+                while (hasRectangle && rectangleSet.getInt("region_region_id") <= regionID) {
+                    if (rectangleSet.getInt("region_region_id") == regionID) {
+                        rectangles.add(rectangleMapper.createObject(rectangleSet));
+                    }
+                    hasRectangle = rectangleSet.next();
+                }
+                region.setRectangles(rectangles);
+
+                ImmutableMap.Builder<String, String> builder = null;
+                while (hasMeta && metaSet.getInt("region_region_id") <= regionID) {
+                    if (metaSet.getInt("region_region_id") == regionID) {
+                        if (builder == null) {
+                            builder = new ImmutableMap.Builder<>();
+                        }
+                        builder.put(metaSet.getString("mkey"), metaSet.getString("value"));
+                    }
+                    hasMeta = metaSet.next();
+                }
+                if (builder != null) {
+                    Map<String, String> map = builder.build();
+                    region.setData(new RegionData(regionID, map.get("owner"), map));
+                }
+
+                consumer.accept(region);
+            }
+        } catch (final SQLException e) {
+            throw new IllegalStateException("Failed to stream the regions", e);
+        }
+    }
+
+    private PreparedStatement prepareCursor(Connection connection, String sql, Collection<String> parameters)
+            throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            statement.setFetchSize(fetchSize);
+            if (parameters != null) {
+                int index = 1;
+                for (String parameter : parameters) {
+                    statement.setString(index++, parameter);
+                }
+            }
+        } catch (final SQLException e) {
+            statement.close();
+            throw e;
+        }
+        return statement;
+    }
+}
@@ -0,0 +1,201 @@
+package com.intellectualsites.rectangular.database;
+
+import com.intellectualsites.rectangular.api.objects.Region;
+import com.intellectualsites.rectangular.core.Rectangle;
+import com.intellectualsites.rectangular.core.SimpleRegion;
+import com.intellectualsites.rectangular.data.RegionData;
+import com.intellectualsites.rectangular.vector.Vector2;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary copy of all regions, stamped with the database revision
+ * it was taken at. Regions are sorted by ID and stored with
+ * delta encoded varints, so the file is a fraction of the size
+ * of the tables, and is read through a memory mapped buffer
+ *
+ * @author Citymonstret
+ */
+@RequiredArgsConstructor
+public class RegionSnapshot {
+
+    private static final int MAGIC = 0x52534e50; // RSNP
+    private static final int FORMAT_VERSION = 1;
+
+    @Getter
+    private final long revision;
+
+    @Getter
+    private final List<Region> regions;
+
+    /**
+     * Write a snapshot. The file is written next to the target
+     * and then moved over it, so a crash never leaves half a file
+     *
+     * @param file Snapshot file
+     * @param revision Database revision that the regions were loaded at
+     * @param regions Regions to store
+     * @throws IOException If the file couldn't be written
+     */
+    public static void write(@NonNull final File file, final long revision,
+                             @NonNull final Collection<Region> regions) throws IOException {
+        final Region[] sorted = regions.toArray(new Region[regions.size()]);
+        Arrays.sort(sorted, Comparator.comparingInt(Region::getId));
+
+        final File temporary = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(revision);
+            writeVarInt(out, sorted.length);
+            int previousID = 0;
+            for (final Region region : sorted) {
+                writeVarInt(out, zigZag(region.getId() - previousID));
+                previousID = region.getId();
+                writeString(out, region.getOwningContainer());
+
+                final Rectangle[] rectangles = region.getRectangles();
+                writeVarInt(out, rectangles.length);
+                int previousX = 0, previousY = 0;
+                for (final Rectangle rectangle : rectangles) {
+                    final int minX = rectangle.getMin().getX(), minY = rectangle.getMin().getY();
+                    writeVarInt(out, zigZag(minX - previousX));
+                    writeVarInt(out, zigZag(minY - previousY));
+                    writeVarInt(out, zigZag(rectangle.getMax().getX() - minX));
+                    writeVarInt(out, zigZag(rectangle.getMax().getY() - minY));
+                    previousX = minX;
+                    previousY = minY;
+                }
+
+                // 0 means that the region has no data
+                final Map<String, String> data = region.getData() == null ? null : region.getData().getRawEntries();
+                writeVarInt(out, data == null ? 0 : data.size() + 1);
+                if (data != null) {
+                    for (final Map.Entry<String, String> entry : data.entrySet()) {
+                        writeString(out, entry.getKey());
+                        writeString(out, entry.getValue());
+                    }
+                }
+            }
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a snapshot. The regions are not compiled
+     *
+     * @param file Snapshot file
+     * @return The snapshot
+     * @throws IOException If the file couldn't be read, or isn't a valid snapshot
+     */
+    public static RegionSnapshot read(@NonNull final File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a region snapshot: " + file);
+            }
+            final int version = buffer.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot version: " + version);
+            }
+            final long revision = buffer.getLong();
+            final int regionCount = readVarInt(buffer);
+            final List<Region> regions = new ArrayList<>(regionCount);
+            int previousID = 0;
+            for (int i = 0; i < regionCount; i++) {
+                final int id = previousID + unZigZag(readVarInt(buffer));
+                previousID = id;
+                final Region region = new SimpleRegion(id, RectangularDB.REGION_LEVEL, readString(buffer));
+
+                final int rectangleCount = readVarInt(buffer);
+                final List<Rectangle> rectangles = new ArrayList<>(rectangleCount);
+                int previousX = 0, previousY = 0;
+                for (int r = 0; r < rectangleCount; r++) {
+                    final int minX = previousX + unZigZag(readVarInt(buffer));
+                    final int minY = previousY + unZigZag(readVarInt(buffer));
+                    final int maxX = minX + unZigZag(readVarInt(buffer));
+                    final int maxY = minY + unZigZag(readVarInt(buffer));
+                    rectangles.add(new Rectangle(id, new Vector2(minX, minY), new Vector2(maxX, maxY)));
+                    previousX = minX;
+                    previousY = minY;
+                }
+                region.setRectangles(rectangles);
+
+                final int dataSize = readVarInt(buffer) - 1;
+                if (dataSize >= 0) {
+                    final Map<String, String> data = new HashMap<>();
+                    for (int d = 0; d < dataSize; d++) {
+                        data.put(readString(buffer), readString(buffer));
+                    }
+                    region.setData(new RegionData(id, data.get("owner"), data));
+                }
+                regions.add(region);
+            }
+            return new RegionSnapshot(revision, regions);
+        } catch (final BufferUnderflowException e) {
+            throw new IOException("Truncated region snapshot: " + file, e);
+        }
+    }
+
+    private static int zigZag(final int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unZigZag(final int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarInt(final DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(final ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in region snapshot");
+    }
+
+    private static void writeString(final DataOutputStream out, final String string) throws IOException {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final ByteBuffer buffer) throws IOException {
+        final byte[] bytes = new byte[readVarInt(buffer)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
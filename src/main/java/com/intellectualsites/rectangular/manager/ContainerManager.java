@@ -4,12 +4,12 @@ import com.intellectualsites.rectangular.CoreModule;
 import com.intellectualsites.rectangular.core.ContainerFactory;
 import com.intellectualsites.rectangular.core.RegionContainer;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ContainerManager implements CoreModule {
 
-    private Map<Character, ContainerFactory<?>> containerFactories = new HashMap<>();
+    private Map<Character, ContainerFactory<?>> containerFactories = new ConcurrentHashMap<>();
 
     public void addContainerFactory(ContainerFactory<?> factory) {
         containerFactories.put(factory.getRawPrefix(), factory);
@@ -35,4 +35,19 @@ public class ContainerManager implements CoreModule {
         String prefix = key.substring(0, 1);
         return getRegionContainer(prefix.toCharArray()[0], key.substring(2, key.length()));
     }
+
+    /**
+     * Check if a container is currently available, containers
+     * can come and go at runtime (such as when worlds unload)
+     *
+     * @param key Container ID, such as: w:test_world
+     * @return True if the container exists
+     */
+    public boolean hasRegionContainer(String key) {
+        if (key.length() < 3) {
+            return false;
+        }
+        ContainerFactory<?> factory = getContainerFactory(key.charAt(0));
+        return factory != null && factory.hasContainer(key.substring(2));
+    }
 }
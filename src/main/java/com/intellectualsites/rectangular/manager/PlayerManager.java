@@ -2,6 +2,7 @@ package com.intellectualsites.rectangular.manager;
 
 import com.intellectualsites.rectangular.player.PlayerMeta;
 import com.intellectualsites.rectangular.player.RectangularPlayer;
+import com.intellectualsites.rectangular.util.IntHashSet;
 
 import java.util.UUID;
 
@@ -22,4 +23,13 @@ public interface PlayerManager {
      */
     void loadMeta(UUID uuid);
 
+    /**
+     * Drop the cached region of every player that is in one
+     * of the regions, called on the main thread before the
+     * regions are released
+     *
+     * @param regionIDs IDs of the regions
+     */
+    void forgetRegions(IntHashSet regionIDs);
+
 }
@@ -6,18 +6,29 @@ import com.google.common.collect.ImmutableSet;
 import com.intellectualsites.rectangular.CoreModule;
 import com.intellectualsites.rectangular.Rectangular;
 import com.intellectualsites.rectangular.api.objects.Region;
-import com.intellectualsites.rectangular.core.Quadrant;
 import com.intellectualsites.rectangular.core.Rectangle;
 import com.intellectualsites.rectangular.core.RegionContainer;
+import com.intellectualsites.rectangular.core.WorldContainer;
+import com.intellectualsites.rectangular.database.RegionSnapshot;
 import com.intellectualsites.rectangular.event.impl.RegionManagerDoneEvent;
+import com.intellectualsites.rectangular.util.IntHashSet;
+import com.intellectualsites.rectangular.util.IntList;
+import com.intellectualsites.rectangular.util.LongHashMap;
 import com.intellectualsites.rectangular.vector.Vector2;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -28,45 +39,379 @@ public class RegionManager implements CoreModule {
 
     private final ContainerManager containerManager;
 
-    private final Map<String, Integer> idMapping = new ConcurrentHashMap<>();
-    private final Map<Integer, Region> regionMap = new ConcurrentHashMap<>();
+    /**
+     * Sub-regions nested deeper than this are treated as
+     * having no owner, which also stops owner loops
+     */
+    private static final int MAX_NESTING = 64;
+
+    /**
+     * Owners per query when the regions of a world are loaded
+     */
+    private static final int OWNER_BATCH = 500;
+
+    private final RegionRegistry registry = new RegionRegistry();
+
+    /**
+     * Whether or not merged rectangles should be written back to the database
+     */
+    @Setter
+    private boolean coalesceWriteBack = false;
+
+    /**
+     * Whether or not regions should be compiled while they're streamed
+     * from the database, rather than loaded first and compiled afterwards
+     */
+    @Setter
+    private boolean streamingLoad = false;
+
+    /**
+     * Amount of threads used to compile the regions during
+     * load, 0 uses one thread per available processor
+     */
+    @Setter
+    private int compileThreads = 0;
+
+    /**
+     * Snapshot file that regions are loaded from on startup,
+     * null if snapshots are disabled
+     */
+    @Setter
+    private File snapshotFile;
 
     public void load() {
-        ImmutableCollection<Rectangle> temp = Rectangular.get().getDatabase().loadRectangles();
-        ImmutableCollection<Region> regions = Rectangular.get().getDatabase().loadRegions();
+        Consumer<String> logger = Rectangular.get().getServiceManager().logger()::info; // Cheating <3
 
+        if (snapshotFile != null && snapshotFile.exists()) {
+            RegionSnapshot snapshot = null;
+            try {
+                snapshot = RegionSnapshot.read(snapshotFile);
+            } catch (final IOException e) {
+                Rectangular.get().getServiceManager().logger().warning("Failed to read the region snapshot: " + e.getMessage());
+            }
+            if (snapshot != null) {
+                final List<Region> loaded = inLoadedWorlds(snapshot.getRegions());
+                compileRegions(loaded);
+                registerRegions(loaded);
+                logger.accept("Loaded " + snapshot.getRegions().size() + " regions from the snapshot!");
+                pushDoneEvent();
+                // The regions are protected from here on, catch up with the database
+                reconcile(snapshot.getRevision());
+                return;
+            }
+        }
+
+        // Read before loading, so that changes made during the load make the snapshot outdated
+        final long revision = snapshotFile == null ? -1 : Rectangular.get().getDatabase().getRevision();
+        final List<Region> regions = loadFromDatabase();
+        // Registering releases the regions that aren't indexed, so the snapshot is written first
+        writeSnapshot(revision, regions);
+        registerRegions(regions);
+        logger.accept("Finished loading!");
+        pushDoneEvent();
+    }
+
+    /**
+     * Reload the regions from the database, if it has
+     * changed since the snapshot was written
+     */
+    private void reconcile(final long snapshotRevision) {
+        Consumer<String> logger = Rectangular.get().getServiceManager().logger()::info;
+        final long revision = Rectangular.get().getDatabase().getRevision();
+        if (revision == snapshotRevision) {
+            logger.accept("The region snapshot is up to date");
+            return;
+        }
+        logger.accept("The region snapshot is outdated, reloading the regions from the database");
+        final List<Region> regions = loadFromDatabase();
+        writeSnapshot(revision, regions);
+        final IntHashSet loaded = new IntHashSet(regions.size());
         for (final Region region : regions) {
-            region.setRectangles(temp.stream()
-                    .filter(r -> r.getId() == region.getId()).collect(Collectors.toSet()));
-            region.compile();
-            regionMap.put(region.getId(), region);
-            idMapping.put(region.getContainerID(), region.getId());
+            loaded.add(region.getId());
         }
+        final List<Region> removed = new ArrayList<>();
+        for (final Region region : registry.values()) {
+            if (!loaded.contains(region.getId())) {
+                unregisterRegion(region);
+                removed.add(region);
+            }
+        }
+        releaseRegions(removed);
+        registerRegions(regions);
+    }
 
-        for (Region region : regionMap.values()) {
+    private List<Region> loadFromDatabase() {
+        final int[] rectangleCount = new int[1];
+        final List<Region> regions = new ArrayList<>();
+        if (streamingLoad) {
+            final ForkJoinPool pool = createCompilePool();
             try {
-                RegionContainer container = containerManager
-                        .getRegionContainer(region.getOwningContainer());
-                container.compileQuadrants(region);
-            } catch (final Exception e) {
-                Rectangular.get().getServiceManager().logger().warning("Failed to find container: " + region.getOwningContainer());
+                // Every region is compiled as soon as it has been read
+                final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+                final List<Region> subRegions = new ArrayList<>();
+                Rectangular.get().getDatabase().streamRegions(region -> {
+                    rectangleCount[0] += region.getRectangleCount();
+                    regions.add(region);
+                    // The owner of a sub-region may not have been read yet, so
+                    // sub-regions wait until every region has been read
+                    if (region.getOwningContainer().startsWith("r:")) {
+                        subRegions.add(region);
+                    } else if (containerManager.hasRegionContainer(region.getOwningContainer())) {
+                        tasks.add(pool.submit(() -> compileLoadedRegion(region)));
+                    }
+                });
+                final LongHashMap<Region> batch = byID(regions);
+                for (final Region region : subRegions) {
+                    if (isInLoadedWorld(region, batch)) {
+                        tasks.add(pool.submit(() -> compileLoadedRegion(region)));
+                    }
+                }
+                tasks.forEach(ForkJoinTask::join);
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            regions.addAll(Rectangular.get().getDatabase().loadRegionsBulk());
+            for (final Region region : regions) {
+                rectangleCount[0] += region.getRectangleCount();
             }
+            compileRegions(inLoadedWorlds(regions));
         }
 
-        for (final int regionID : regionMap.keySet()) {
+        // tc == Temporary
+        Consumer<String> logger = Rectangular.get().getServiceManager().logger()::info;
+        logger.accept("Loaded " + rectangleCount[0] + " rectangles, making " + regions.size() + " regions!");
+        // -tc == End of Temporary
+        return regions;
+    }
+
+    /**
+     * Compile regions in parallel. Compiling (coalescing, corners, coverage)
+     * only touches the region itself, indexing is done afterwards
+     */
+    private void compileRegions(final List<Region> regions) {
+        final ForkJoinPool pool = createCompilePool();
+        try {
+            pool.invoke(new CompileTask(regions.toArray(new Region[regions.size()]), 0, regions.size()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Regions in worlds that aren't loaded are neither compiled
+     * nor indexed, they're loaded when their world loads. Sub-regions
+     * are in the world of the region that owns them
+     */
+    private List<Region> inLoadedWorlds(final List<Region> regions) {
+        final LongHashMap<Region> batch = byID(regions);
+        return regions.stream().filter(region -> isInLoadedWorld(region, batch)).collect(Collectors.toList());
+    }
+
+    private boolean isInLoadedWorld(final Region region, final LongHashMap<Region> batch) {
+        final String worldContainer = getWorldContainerID(region, batch);
+        return worldContainer != null && containerManager.hasRegionContainer(worldContainer);
+    }
+
+    /**
+     * Get the container that a region is in, following
+     * the owners of sub-regions up to a top level region
+     *
+     * @param region Region
+     * @param batch Regions that may not be registered yet, by ID
+     * @return Container ID, such as w:test_world, or null if an owner is missing
+     */
+    private String getWorldContainerID(Region region, final LongHashMap<Region> batch) {
+        for (int depth = 0; depth < MAX_NESTING; depth++) {
+            final String owner = region.getOwningContainer();
+            if (!owner.startsWith("r:")) {
+                return owner;
+            }
+            final int ownerID = RegionRegistry.getRegionID(owner);
+            Region parent = batch.get(ownerID);
+            if (parent == null) {
+                parent = registry.get(ownerID);
+            }
+            if (parent == null) {
+                return null;
+            }
+            region = parent;
+        }
+        return null;
+    }
+
+    private static LongHashMap<Region> byID(final List<Region> regions) {
+        final LongHashMap<Region> byID = new LongHashMap<>(regions.size());
+        for (final Region region : regions) {
+            byID.put(region.getId(), region);
+        }
+        return byID;
+    }
+
+    /**
+     * Get the container that holds the regions owned by a container ID,
+     * which is either a world (w:[name]) or a region (r:[id];l:[level])
+     */
+    private RegionContainer getContainer(final String owningContainer) {
+        if (owningContainer.startsWith("r:")) {
+            final RegionContainer container = (RegionContainer) registry.getContainer(owningContainer);
+            if (container == null) {
+                throw new IllegalStateException("The owning region isn't loaded: " + owningContainer);
+            }
+            return container;
+        }
+        return containerManager.getRegionContainer(owningContainer);
+    }
+
+    private ForkJoinPool createCompilePool() {
+        return new ForkJoinPool(compileThreads > 0 ? compileThreads : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Add (or replace) compiled regions, and index them
+     */
+    private void registerRegions(final List<Region> regions) {
+        final LongHashMap<Region> batch = byID(regions);
+        final List<Region> compiled = new ArrayList<>(regions.size());
+        final List<Region> replaced = new ArrayList<>();
+        for (final Region region : regions) {
+            if (!region.isCompiled()) {
+                continue; // Failed to compile, and has been logged
+            }
+            if (!isInLoadedWorld(region, batch)) {
+                region.release(); // Never registered, so no one holds on to it
+                continue; // The world isn't loaded, see inLoadedWorlds
+            }
+            final Region previous = registry.put(region);
+            if (previous != null && previous != region) {
+                replaced.add(previous); // Replaced by a reload
+            }
+            compiled.add(region);
+        }
+        releaseRegions(replaced);
+
+        // Group the regions by container, so that every index can be bulk loaded
+        Map<String, List<Region>> byContainer = compiled.stream()
+                .collect(Collectors.groupingBy(Region::getOwningContainer));
+        for (Map.Entry<String, List<Region>> entry : byContainer.entrySet()) {
             try {
-                regionMap.get(regionID).setData(Rectangular.get().getDatabase().loadRegionData(regionID));
+                getContainer(entry.getKey()).compileQuadrants(entry.getValue());
             } catch (final Exception e) {
-                Rectangular.get().getServiceManager().logger().warning("Failed to load data for: " + regionID);
+                Rectangular.get().getServiceManager().logger().warning("Failed to find container: " + entry.getKey());
             }
         }
+    }
 
-        // tc == Temporary
-        Consumer<String> logger = Rectangular.get().getServiceManager().logger()::info; // Cheating <3
-        logger.accept("Finished loading!");
-        logger.accept("Loaded " + temp.size() + " rectangles, making " + regions.size() + " regions!");
-        // -tc == End of Temporary
+    /**
+     * Load and index the regions of a world, which has to be done
+     * when a world loads after startup. This blocks while the
+     * regions are read, so it should be called async
+     * <p>
+     * The world is only added once its regions have been read,
+     * so a failed load leaves nothing behind and can be retried
+     *
+     * @param world Name of the world
+     */
+    public void loadWorld(@NonNull final String world) {
+        final WorldManager worldManager = (WorldManager) containerManager.getContainerFactory('w');
+        if (worldManager.hasContainer(world)) {
+            return; // Already loaded
+        }
+        final List<Region> regions = new ArrayList<>();
+        try {
+            // The regions of the world, then the sub-regions of those, one level at a time
+            List<String> owners = Collections.singletonList(WorldContainer.generateID(world));
+            for (int depth = 0; depth < MAX_NESTING && !owners.isEmpty(); depth++) {
+                final List<String> nextOwners = new ArrayList<>();
+                for (int i = 0; i < owners.size(); i += OWNER_BATCH) {
+                    Rectangular.get().getDatabase().streamRegions(
+                            owners.subList(i, Math.min(owners.size(), i + OWNER_BATCH)), region -> {
+                                regions.add(region);
+                                nextOwners.add(region.getContainerID());
+                            });
+                }
+                owners = nextOwners;
+            }
+        } catch (final Exception e) {
+            Rectangular.get().getServiceManager().logger().warning("Failed to load the regions in " + world + ": "
+                    + e.getMessage());
+            return;
+        }
+        compileRegions(regions);
+        worldManager.addWorld(world);
+        registerRegions(regions);
+        Rectangular.get().getServiceManager().logger().info("Loaded " + regions.size() + " regions in " + world);
+    }
+
+    /**
+     * Drop the regions and the index of a world, along with the
+     * sub-regions of those regions. Has to be called on the main thread
+     *
+     * @param world Name of the world
+     */
+    public void unloadWorld(@NonNull final String world) {
+        final WorldManager worldManager = (WorldManager) containerManager.getContainerFactory('w');
+        final WorldContainer container = worldManager.removeWorld(world);
+        if (container == null) {
+            return;
+        }
+        final List<Region> removed = new ArrayList<>();
+        final IntHashSet removedIDs = new IntHashSet();
+        final IntList pending = container.getRegionIDs();
+        while (!pending.isEmpty()) {
+            final Region region = registry.remove(pending.removeAt(pending.size() - 1));
+            if (region == null || !removedIDs.add(region.getId())) {
+                continue;
+            }
+            removed.add(region);
+            if (region instanceof RegionContainer) {
+                pending.addAll(((RegionContainer) region).getRegionIDs());
+            }
+        }
+        // Players hold on to the region they're in, which can't be used once it's released
+        Rectangular.get().getServiceManager().getPlayerManager().forgetRegions(removedIDs);
+        removed.forEach(Region::release);
+    }
+
+    private void unregisterRegion(final Region region) {
+        registry.remove(region.getId());
+        try {
+            getContainer(region.getOwningContainer()).removeRegion(region.getId());
+        } catch (final Exception e) {
+            Rectangular.get().getServiceManager().logger().warning("Failed to find container: " + region.getOwningContainer());
+        }
+    }
+
+    /**
+     * Release regions that have been taken out of the registry. Players hold on
+     * to the region they're in, so they forget them first, on the main thread
+     */
+    private void releaseRegions(final List<Region> regions) {
+        if (regions.isEmpty()) {
+            return;
+        }
+        final IntHashSet ids = new IntHashSet(regions.size());
+        for (final Region region : regions) {
+            ids.add(region.getId());
+        }
+        Rectangular.get().getServiceManager().runSync(() -> {
+            Rectangular.get().getServiceManager().getPlayerManager().forgetRegions(ids);
+            regions.forEach(Region::release);
+        });
+    }
 
+    private void writeSnapshot(final long revision, final List<Region> regions) {
+        if (snapshotFile == null) {
+            return;
+        }
+        try {
+            RegionSnapshot.write(snapshotFile, revision, regions);
+        } catch (final IOException e) {
+            Rectangular.get().getServiceManager().logger().warning("Failed to write the region snapshot: " + e.getMessage());
+        }
+    }
+
+    private void pushDoneEvent() {
         // Call the event, but this action is always ran async
         Rectangular.get().getServiceManager().runSync(() ->
                 Rectangular.get().getEventManager().push(new RegionManagerDoneEvent(RegionManager.this)));
@@ -96,22 +441,12 @@ public class RegionManager implements CoreModule {
      * there was no overlapping
      */
     public ImmutableList<Region> overlaps(@NonNull final String world, @NonNull final Rectangle rectangle) {
-        // This will just make sure that we get all possible regions
-        // As the min and the max might be in different world quadrants (unlikely)
-        Quadrant minQ = containerManager.getRegionContainer('w', world).getContainerQuadrant(rectangle.getMin());
-        Quadrant maxQ = containerManager.getRegionContainer('w', world).getContainerQuadrant(rectangle.getMax());
-
+        // The index only returns every region once
         List<Region> regions = new ArrayList<>();
-        List<Integer> toCheck = new ArrayList<>();
-
-        // Make sure that every region is only checked once
-        minQ.getIds().stream().filter(i -> !toCheck.contains(i)).forEach(toCheck::add);
-        maxQ.getIds().stream().filter(i -> !toCheck.contains(i)).forEach(toCheck::add);
-
-        // A very simple overlap check
-        for (int i : toCheck) {
-            Region temp = getRegion(i);
-            if (temp.getBoundingBox().overlaps(rectangle)) {
+        IntList ids = containerManager.getRegionContainer('w', world).getRegionIDs(rectangle);
+        for (int i = 0; i < ids.size(); i++) {
+            Region temp = getRegion(ids.get(i));
+            if (temp != null) {
                 regions.add(temp);
             }
         }
@@ -131,28 +466,49 @@ public class RegionManager implements CoreModule {
      * @return Top level region | Null
      */
     public Region getHighestLevelRegion(@NonNull final String world, @NonNull final Vector2 vector2) {
-        // Get the WorldContainer ('w' is the prefix for WorldContainers')
-        // Then get the quadrant for the vector
-        Quadrant quadrant = containerManager.getRegionContainer('w', world)
-                .getContainerQuadrant(vector2);
-
-        // If the quadrant is null (should never happen)
-        // Or if it's empty, then we'll just return
-        if (quadrant == null || quadrant.isEmpty()) {
-            return null;
-        }
+        return getHighestLevelRegion(world, vector2.getX(), vector2.getY());
+    }
 
-        // Loop through all region IDs in the quadrant
-        for (int id : quadrant.getIds()) {
+    /**
+     * Get the top level region for the given coordinates,
+     * without allocating a vector
+     *
+     * @param world The world we're checking in
+     * @param x X coordinate
+     * @param z Z coordinate
+     *
+     * @return Top level region | Null
+     */
+    public Region getHighestLevelRegion(@NonNull final String world, final int x, final int z) {
+        // Get the WorldContainer ('w' is the prefix for WorldContainers')
+        // Then visit the candidates that the index returns for the coordinates
+        final Region[] found = new Region[1];
+        containerManager.getRegionContainer('w', world).visitRegions(x, z, id -> {
             // Fetch the region based on its ID and check if
-            // it contains the vector
-            if (regionMap.get(id).isInRegion(vector2)) {
-                return regionMap.get(id);
+            // it contains the coordinates
+            final Region region = registry.get(id);
+            if (region != null && region.isInRegion(x, z)) {
+                found[0] = region;
+                return false;
             }
-        }
+            return true;
+        });
 
-        // Nah, didn't find it :/
-        return null;
+        // Null if we didn't find it :/
+        return found[0];
+    }
+
+    /**
+     * Get the region whose bounding box is closest
+     * to the given coordinates
+     *
+     * @param world The world we're checking in
+     * @param vector2 The coordinates
+     *
+     * @return Nearest region | Null, if there are no regions in the world
+     */
+    public Region getNearestRegion(@NonNull final String world, @NonNull final Vector2 vector2) {
+        return getRegion(containerManager.getRegionContainer('w', world).getNearestRegionID(vector2));
     }
 
     public ImmutableCollection<Region> filterRegions(Predicate<Region> filter) {
@@ -160,7 +516,7 @@ public class RegionManager implements CoreModule {
     }
 
     public ImmutableCollection<Region> getRegions() {
-        return ImmutableSet.copyOf(regionMap.values());
+        return ImmutableSet.copyOf(registry.values());
     }
 
     /**
@@ -170,28 +526,66 @@ public class RegionManager implements CoreModule {
      * @return The region | Null
      */
     public Region getRegion(int i) {
-        if (!regionMap.containsKey(i)) {
-            return null;
+        return registry.get(i);
+    }
+
+    /**
+     * Compile a region, and write its rectangles back to the
+     * database if compiling merged any of them (and that's enabled)
+     *
+     * @param region Region to compile
+     */
+    public void compileRegion(@NonNull final Region region) {
+        final int rectangleCount = region.getRectangleCount();
+        region.compile();
+        if (coalesceWriteBack && region.getRectangleCount() < rectangleCount) {
+            Rectangular.get().getDatabase().replaceRectangles(region.getId(), Arrays.asList(region.getRectangles()));
+        }
+    }
+
+    private void compileLoadedRegion(final Region region) {
+        try {
+            compileRegion(region);
+        } catch (final Exception e) {
+            Rectangular.get().getServiceManager().logger().warning("Failed to compile region: " + region.getId());
+            e.printStackTrace();
         }
-        return regionMap.get(i);
     }
 
     public void addRegionUnsafe(Region region) throws Exception {
         if (!region.isCompiled()) {
-            region.compile();
+            compileRegion(region);
         }
 
-        if (!idMapping.containsKey(region.getContainerID())) {
-            idMapping.put(region.getContainerID(), region.getId());
-        }
-        if (!regionMap.containsKey(region.getId())) {
-            regionMap.put(region.getId(), region);
-        }
+        registry.putIfAbsent(region);
 
-        if (region.getOwningContainer().startsWith("w:")) {
-            ((WorldManager) containerManager.getContainerFactory('w')).getWorldContainers().get(region.getOwningContainer().replace("w:", "")).compileQuadrants(region);
-        } else {
-            ((RegionContainer) regionMap.get(idMapping.get(region.getOwningContainer()))).compileQuadrants(region);
+        getContainer(region.getOwningContainer()).compileQuadrants(region);
+    }
+
+    /**
+     * Compiles a range of regions, splitting it
+     * in half until the ranges are small enough
+     */
+    @RequiredArgsConstructor
+    private final class CompileTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int THRESHOLD = 16;
+
+        private final Region[] regions;
+        private final int from, to;
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    compileLoadedRegion(regions[i]);
+                }
+                return;
+            }
+            final int mid = (from + to) >>> 1;
+            invokeAll(new CompileTask(regions, from, mid), new CompileTask(regions, mid, to));
         }
     }
 }
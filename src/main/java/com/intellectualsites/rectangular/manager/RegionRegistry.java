@@ -0,0 +1,163 @@
+package com.intellectualsites.rectangular.manager;
+
+import com.intellectualsites.rectangular.api.objects.Region;
+import com.intellectualsites.rectangular.util.LongHashMap;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Registry of the loaded regions, indexed by their ID. Region IDs
+ * are dense auto increment values, so the regions are kept in an
+ * array, and a lookup is a single array load without boxing
+ * <p>
+ * Writes are serialized, reads never lock. The array is replaced
+ * by a larger copy when an ID doesn't fit
+ *
+ * @author Citymonstret
+ */
+public final class RegionRegistry {
+
+    private volatile AtomicReferenceArray<Region> regions = new AtomicReferenceArray<>(1024);
+
+    // Region containers, by (region ID, level), guarded by this
+    private final LongHashMap<Region> containers = new LongHashMap<>();
+
+    private int size;
+
+    /**
+     * Get a region based on its ID
+     *
+     * @param id Region ID
+     * @return The region | Null
+     */
+    public Region get(final int id) {
+        final AtomicReferenceArray<Region> regions = this.regions;
+        return id >= 0 && id < regions.length() ? regions.get(id) : null;
+    }
+
+    /**
+     * Add, or replace, a region
+     *
+     * @param region Region to add
+     * @return The region that was replaced, or null
+     */
+    public synchronized Region put(@NonNull final Region region) {
+        final int id = region.getId();
+        if (id < 0) {
+            throw new IllegalArgumentException("Region IDs may not be negative: " + id);
+        }
+        AtomicReferenceArray<Region> regions = this.regions;
+        if (id >= regions.length()) {
+            final AtomicReferenceArray<Region> grown = new AtomicReferenceArray<>(
+                    (int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) regions.length() * 2, (long) id + 1)));
+            for (int i = 0; i < regions.length(); i++) {
+                grown.lazySet(i, regions.get(i));
+            }
+            this.regions = regions = grown;
+        }
+        final Region previous = regions.getAndSet(id, region);
+        if (previous == null) {
+            size++;
+        } else {
+            containers.remove(containerKey(previous.getContainerID()));
+        }
+        containers.put(containerKey(region.getContainerID()), region);
+        return previous;
+    }
+
+    /**
+     * Add a region, unless one with the same ID is registered already
+     *
+     * @param region Region to add
+     * @return True if it was added
+     */
+    public synchronized boolean putIfAbsent(@NonNull final Region region) {
+        if (get(region.getId()) != null) {
+            return false;
+        }
+        put(region);
+        return true;
+    }
+
+    /**
+     * Remove a region based on its ID
+     *
+     * @param id Region ID
+     * @return The removed region, or null
+     */
+    public synchronized Region remove(final int id) {
+        final AtomicReferenceArray<Region> regions = this.regions;
+        if (id < 0 || id >= regions.length()) {
+            return null;
+        }
+        final Region previous = regions.getAndSet(id, null);
+        if (previous != null) {
+            size--;
+            containers.remove(containerKey(previous.getContainerID()));
+        }
+        return previous;
+    }
+
+    /**
+     * Get the region that acts as a container
+     *
+     * @param containerID Container ID, such as r:12;l:1
+     * @return The region | Null
+     */
+    public synchronized Region getContainer(@NonNull final String containerID) {
+        return containers.get(containerKey(containerID));
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Get all registered regions, ordered by ID
+     *
+     * @return A copy of the regions
+     */
+    public List<Region> values() {
+        final AtomicReferenceArray<Region> regions = this.regions;
+        final List<Region> values = new ArrayList<>();
+        for (int i = 0; i < regions.length(); i++) {
+            final Region region = regions.get(i);
+            if (region != null) {
+                values.add(region);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Get the ID of the region behind a region container ID
+     *
+     * @param containerID Container ID, such as r:12;l:1
+     * @return Region ID
+     */
+    public static int getRegionID(@NonNull final String containerID) {
+        return Integer.parseInt(containerID.substring(2, separatorOf(containerID)));
+    }
+
+    private static int separatorOf(final String containerID) {
+        final int separator = containerID.indexOf(";l:");
+        if (!containerID.startsWith("r:") || separator == -1) {
+            throw new IllegalArgumentException("Not a region container: " + containerID);
+        }
+        return separator;
+    }
+
+    /**
+     * Turn a region container ID (r:[id];l:[level])
+     * into a primitive key
+     */
+    private static long containerKey(final String containerID) {
+        final int separator = separatorOf(containerID);
+        final int id = Integer.parseInt(containerID.substring(2, separator));
+        final int level = Integer.parseInt(containerID.substring(separator + 3));
+        return ((long) id << 32) | (level & 0xFFFFFFFFL);
+    }
+}
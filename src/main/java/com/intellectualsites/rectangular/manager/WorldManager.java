@@ -5,12 +5,14 @@ import com.intellectualsites.rectangular.Rectangular;
 import com.intellectualsites.rectangular.api.objects.Region;
 import com.intellectualsites.rectangular.core.ContainerFactory;
 import com.intellectualsites.rectangular.core.WorldContainer;
+import com.intellectualsites.rectangular.util.IntList;
 import lombok.Getter;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This manages each world, and its quadrants
@@ -19,18 +21,41 @@ import java.util.Set;
  */
 public class WorldManager extends ContainerFactory<WorldContainer> implements CoreModule {
 
+    /**
+     * Containers of the loaded worlds, worlds are
+     * added and removed as they load and unload
+     */
     @Getter
-    private final HashMap<String, WorldContainer> worldContainers = new HashMap<>();
+    private final Map<String, WorldContainer> worldContainers = new ConcurrentHashMap<>();
 
     public WorldManager(Collection<String> worlds) {
         super('w');
 
         for (String world : worlds) {
-            WorldContainer temp = new WorldContainer(world);
-            worldContainers.put(temp.getWorldName(), temp);
+            addWorld(world);
         }
     }
 
+    /**
+     * Add an empty container for a world, if it doesn't have one
+     *
+     * @param worldName Name of the world
+     * @return The container of the world
+     */
+    public WorldContainer addWorld(String worldName) {
+        return worldContainers.computeIfAbsent(worldName, WorldContainer::new);
+    }
+
+    /**
+     * Remove the container of a world, and with it the index
+     *
+     * @param worldName Name of the world
+     * @return The removed container, or null if the world had none
+     */
+    public WorldContainer removeWorld(String worldName) {
+        return worldContainers.remove(worldName);
+    }
+
     /**
      * Do not use this method, it should be cached
      *
@@ -40,8 +65,9 @@ public class WorldManager extends ContainerFactory<WorldContainer> implements Co
     public Set<Region> getRegionsInWorld(String worldName) {
         WorldContainer container = getContainer(worldName);
         Set<Region> set = new HashSet<>();
-        for (int i : container.getRegionIDs()) {
-            Region region = Rectangular.get().getRegionManager().getRegion(i);
+        IntList ids = container.getRegionIDs();
+        for (int i = 0; i < ids.size(); i++) {
+            Region region = Rectangular.get().getRegionManager().getRegion(ids.get(i));
             set.add(region);
         }
         return set;
@@ -57,15 +57,9 @@ public class PlayerMeta {
     }
 
     public void setMeta(String key, byte[] value) {
-        final boolean delete = hasMeta(key);
         map.put(key, value);
-        Rectangular.getServiceManager().runAsync(() -> {
-            if (delete) {
-                Rectangular.getDatabase().updatePlayerMeta(uuid, key, value);
-            } else {
-                Rectangular.getDatabase().addPlayerMeta(uuid, key, value);
-            }
-        });
+        // Written behind, only the latest value per key reaches the database
+        Rectangular.getDatabase().getPlayerMetaQueue().set(uuid, key, value);
     }
 
     public void setMeta(String key, boolean value) {
@@ -87,8 +81,7 @@ public class PlayerMeta {
     public void removeMeta(String key) {
         if (hasMeta(key)) {
             map.remove(key);
-            Rectangular.getServiceManager().runAsync(()
-                    -> Rectangular.getDatabase().removePlayerMeta(uuid, key));
+            Rectangular.getDatabase().getPlayerMetaQueue().remove(uuid, key);
         }
     }
 
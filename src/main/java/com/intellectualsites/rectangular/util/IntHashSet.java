@@ -0,0 +1,157 @@
+package com.intellectualsites.rectangular.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash set of primitive ints,
+ * using linear probing and backward shift deletion
+ *
+ * @author Citymonstret
+ */
+public class IntHashSet {
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    // 0 marks a free slot, so it's tracked separately
+    private int[] keys;
+    private boolean containsZero;
+    private int size, mask, resizeAt;
+
+    public IntHashSet() {
+        this(16);
+    }
+
+    public IntHashSet(final int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private static int hash(int key) {
+        key ^= key >>> 16;
+        key *= 0x85ebca6b;
+        key ^= key >>> 13;
+        key *= 0xc2b2ae35;
+        key ^= key >>> 16;
+        return key;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(final int key) {
+        if (key == 0) {
+            return containsZero;
+        }
+        int slot = hash(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Add a value to the set
+     *
+     * @param key Value
+     * @return True if the value wasn't already in the set
+     */
+    public boolean add(final int key) {
+        if (key == 0) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int slot = hash(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        if (++size > resizeAt) {
+            resize(keys.length << 1);
+        }
+        return true;
+    }
+
+    /**
+     * Remove a value from the set
+     *
+     * @param key Value
+     * @return True if the value was in the set
+     */
+    public boolean remove(final int key) {
+        if (key == 0) {
+            if (!containsZero) {
+                return false;
+            }
+            containsZero = false;
+            size--;
+            return true;
+        }
+        int slot = hash(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                shiftBack(slot);
+                size--;
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        containsZero = false;
+        size = 0;
+    }
+
+    private void shiftBack(int slot) {
+        int next = (slot + 1) & mask;
+        while (keys[next] != 0) {
+            final int ideal = hash(keys[next]) & mask;
+            if (((next - ideal) & mask) >= ((next - slot) & mask)) {
+                keys[slot] = keys[next];
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[slot] = 0;
+    }
+
+    private void allocate(final int capacity) {
+        this.keys = new int[capacity];
+        this.mask = capacity - 1;
+        this.resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void resize(final int capacity) {
+        final int[] oldKeys = keys;
+        allocate(capacity);
+        for (final int key : oldKeys) {
+            if (key != 0) {
+                int slot = hash(key) & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+            }
+        }
+    }
+}
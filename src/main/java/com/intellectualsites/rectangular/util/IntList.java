@@ -0,0 +1,115 @@
+package com.intellectualsites.rectangular.util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Growable list of primitive ints. Iterate using
+ * {@link #size()} and {@link #get(int)} (or {@link #forEach(IntConsumer)})
+ * to avoid any boxing or iterator allocations
+ *
+ * @author Citymonstret
+ */
+public class IntList {
+
+    private int[] values;
+    private int size;
+
+    public IntList() {
+        this(8);
+    }
+
+    public IntList(final int capacity) {
+        this.values = new int[Math.max(1, capacity)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int get(final int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return values[index];
+    }
+
+    public void add(final int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size << 1);
+        }
+        values[size++] = value;
+    }
+
+    public void addAll(final IntList list) {
+        if (size + list.size > values.length) {
+            values = Arrays.copyOf(values, Math.max(size + list.size, size << 1));
+        }
+        System.arraycopy(list.values, 0, values, size, list.size);
+        size += list.size;
+    }
+
+    public int indexOf(final int value) {
+        for (int i = 0; i < size; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean contains(final int value) {
+        return indexOf(value) != -1;
+    }
+
+    /**
+     * Remove the value at an index, shifting the following values
+     *
+     * @param index Index
+     * @return The removed value
+     */
+    public int removeAt(final int index) {
+        final int value = get(index);
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        return value;
+    }
+
+    /**
+     * Remove the first occurrence of a value
+     *
+     * @param value Value
+     * @return True if the value was found
+     */
+    public boolean removeValue(final int value) {
+        final int index = indexOf(value);
+        if (index == -1) {
+            return false;
+        }
+        removeAt(index);
+        return true;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void forEach(final IntConsumer consumer) {
+        for (int i = 0; i < size; i++) {
+            consumer.accept(values[i]);
+        }
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
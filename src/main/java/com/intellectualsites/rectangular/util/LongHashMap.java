@@ -0,0 +1,184 @@
+package com.intellectualsites.rectangular.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map with primitive long keys,
+ * so that lookups never box the key. Uses linear probing
+ * and backward shift deletion, so there are no tombstones
+ *
+ * @param <V> Value type
+ * @author Citymonstret
+ */
+@SuppressWarnings("unchecked")
+public class LongHashMap<V> {
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private Object[] values;
+    private int size, mask, resizeAt;
+
+    public LongHashMap() {
+        this(16);
+    }
+
+    public LongHashMap(final int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * Create a copy of a map, the values themselves are not copied
+     *
+     * @param map Map to copy
+     */
+    public LongHashMap(final LongHashMap<V> map) {
+        this.keys = map.keys.clone();
+        this.values = map.values.clone();
+        this.size = map.size;
+        this.mask = map.mask;
+        this.resizeAt = map.resizeAt;
+    }
+
+    /**
+     * Well distributed hash for long keys (MurmurHash3 finalizer)
+     */
+    public static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public V get(final long key) {
+        int slot = hash(key) & mask;
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                return (V) values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    public boolean containsKey(final long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Put a value into the map
+     *
+     * @param key Key
+     * @param value Value, may not be null
+     * @return The previous value, or null
+     */
+    public V put(final long key, final V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Values may not be null");
+        }
+        int slot = hash(key) & mask;
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                final V old = (V) values[slot];
+                values[slot] = value;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > resizeAt) {
+            resize(keys.length << 1);
+        }
+        return null;
+    }
+
+    public V remove(final long key) {
+        int slot = hash(key) & mask;
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                final V old = (V) values[slot];
+                shiftBack(slot);
+                size--;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Visit every entry in the map
+     *
+     * @param consumer Entry consumer
+     */
+    public void forEach(final EntryConsumer<V> consumer) {
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] != null) {
+                consumer.accept(keys[slot], (V) values[slot]);
+            }
+        }
+    }
+
+    private void shiftBack(int slot) {
+        // Move entries that were displaced past the removed slot back
+        int next = (slot + 1) & mask;
+        while (values[next] != null) {
+            final int ideal = hash(keys[next]) & mask;
+            if (((next - ideal) & mask) >= ((next - slot) & mask)) {
+                keys[slot] = keys[next];
+                values[slot] = values[next];
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[slot] = null;
+    }
+
+    private void allocate(final int capacity) {
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        this.mask = capacity - 1;
+        this.resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void resize(final int capacity) {
+        final long[] oldKeys = keys;
+        final Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+}
@@ -0,0 +1,48 @@
+package com.intellectualsites.rectangular.vector;
+
+import com.intellectualsites.rectangular.util.LongHashMap;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+
+/**
+ * Two int coordinates packed into a single long, which
+ * can be used as a map key without allocating a {@link Vector2}.
+ * X is stored in the high 32 bits, and Y in the low 32 bits
+ *
+ * @author Citymonstret
+ */
+@UtilityClass
+public class PackedVector2 {
+
+    public static long pack(final int x, final int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    public static long pack(@NonNull final Vector2 v2) {
+        return pack(v2.getX(), v2.getY());
+    }
+
+    public static int getX(final long packed) {
+        return (int) (packed >> 32);
+    }
+
+    public static int getY(final long packed) {
+        return (int) packed;
+    }
+
+    public static Vector2 toVector(final long packed) {
+        return new Vector2(getX(packed), getY(packed));
+    }
+
+    /**
+     * Well distributed hash of a coordinate pair. Unlike
+     * multiply-xor hashes, nearby coordinates don't collide
+     *
+     * @param x X coordinate
+     * @param y Y coordinate
+     * @return Hash
+     */
+    public static int hash(final int x, final int y) {
+        return LongHashMap.hash(pack(x, y));
+    }
+}
@@ -126,12 +126,13 @@ public class Vector2 {
         return new Vector2(this);
     }
 
-    /**
-     * Borrowed from Slick2D
-     */
     @Override
     public int hashCode() {
-        return 997 *  x ^ 991 * y;
+        return PackedVector2.hash(x, y);
+    }
+
+    public long pack() {
+        return PackedVector2.pack(x, y);
     }
 
     @Override
@@ -0,0 +1,103 @@
+package com.intellectualsites.rectangular.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the chunk coverage bit masks against the rectangles they were built from
+ */
+public class ChunkCoverageTest {
+
+    @Test
+    public void blocksAndChunkStatesMatchRectangles() {
+        final Random random = new Random(3);
+        for (int round = 0; round < 200; round++) {
+            final List<Rectangle> rectangles = randomRectangles(random);
+            final ChunkCoverage coverage = new ChunkCoverage();
+            rectangles.forEach(coverage::addRectangle);
+            assertMatches(rectangles, coverage);
+        }
+    }
+
+    @Test
+    public void copiesDontShareMasks() {
+        final Random random = new Random(4);
+        for (int round = 0; round < 50; round++) {
+            final List<Rectangle> rectangles = randomRectangles(random);
+            final ChunkCoverage original = new ChunkCoverage();
+            rectangles.forEach(original::addRectangle);
+            final ChunkCoverage copy = new ChunkCoverage(original);
+            final List<Rectangle> extended = new ArrayList<>(rectangles);
+            extended.addAll(randomRectangles(random));
+            extended.subList(rectangles.size(), extended.size()).forEach(copy::addRectangle);
+            assertMatches(rectangles, original);
+            assertMatches(extended, copy);
+        }
+    }
+
+    @Test
+    public void regionsCompiledInStepsMatchRectangles() {
+        final Random random = new Random(5);
+        for (int round = 0; round < 100; round++) {
+            final List<Rectangle> rectangles = randomRectangles(random);
+            // Appending to the compiled rectangles reuses the previous table, like expanding does
+            final SimpleRegion region = new SimpleRegion(1, 1, "w:test");
+            for (final Rectangle rectangle : rectangles) {
+                final List<Rectangle> expanded = new ArrayList<>(Arrays.asList(region.getRectangles()));
+                expanded.add(rectangle);
+                region.setRectangles(expanded);
+                region.compile();
+            }
+            for (int x = -120; x < 180; x++) {
+                for (int z = -120; z < 180; z++) {
+                    assertEquals(x + "," + z, covers(rectangles, x, z), region.isInRegion(x, z));
+                }
+            }
+        }
+    }
+
+    private static void assertMatches(final List<Rectangle> rectangles, final ChunkCoverage coverage) {
+        for (int cx = -8; cx < 12; cx++) {
+            for (int cz = -8; cz < 12; cz++) {
+                int covered = 0;
+                for (int x = cx << 4; x < (cx << 4) + 16; x++) {
+                    for (int z = cz << 4; z < (cz << 4) + 16; z++) {
+                        final boolean inside = covers(rectangles, x, z);
+                        assertEquals(x + "," + z, inside, coverage.isInside(x, z));
+                        if (inside) {
+                            covered++;
+                        }
+                    }
+                }
+                final ChunkCoverage.ChunkState expected = covered == 0 ? ChunkCoverage.ChunkState.OUTSIDE
+                        : covered == 256 ? ChunkCoverage.ChunkState.INSIDE : ChunkCoverage.ChunkState.PARTIAL;
+                assertEquals(cx + "," + cz, expected, coverage.getChunkState(cx, cz));
+            }
+        }
+    }
+
+    private static List<Rectangle> randomRectangles(final Random random) {
+        final List<Rectangle> rectangles = new ArrayList<>();
+        final int count = 1 + random.nextInt(6);
+        for (int i = 0; i < count; i++) {
+            final int x = random.nextInt(200) - 100, z = random.nextInt(200) - 100;
+            rectangles.add(new Rectangle(x, z, x + random.nextInt(60), z + random.nextInt(60)));
+        }
+        return rectangles;
+    }
+
+    private static boolean covers(final List<Rectangle> rectangles, final int x, final int z) {
+        for (final Rectangle rectangle : rectangles) {
+            if (rectangle.isInside(x, z)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
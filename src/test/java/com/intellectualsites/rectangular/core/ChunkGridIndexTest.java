@@ -0,0 +1,11 @@
+package com.intellectualsites.rectangular.core;
+
+public class ChunkGridIndexTest extends RegionIndexTest {
+
+    @Override
+    protected RegionIndex createIndex() {
+        // Low, so that the grid also keeps oversized regions
+        ChunkGridIndex.setMaxChunksPerRegion(40);
+        return new ChunkGridIndex();
+    }
+}
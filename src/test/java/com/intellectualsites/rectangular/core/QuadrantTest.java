@@ -0,0 +1,10 @@
+package com.intellectualsites.rectangular.core;
+
+public class QuadrantTest extends RegionIndexTest {
+
+    @Override
+    protected RegionIndex createIndex() {
+        Quadrant.setSplitThreshold(4);
+        return IndexEngine.QUADTREE.createIndex(WORLD);
+    }
+}
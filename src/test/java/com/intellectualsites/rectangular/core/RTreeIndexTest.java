@@ -0,0 +1,9 @@
+package com.intellectualsites.rectangular.core;
+
+public class RTreeIndexTest extends RegionIndexTest {
+
+    @Override
+    protected RegionIndex createIndex() {
+        return new RTreeIndex();
+    }
+}
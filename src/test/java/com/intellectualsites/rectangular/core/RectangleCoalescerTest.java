@@ -0,0 +1,48 @@
+package com.intellectualsites.rectangular.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that coalescing never changes the blocks that are covered
+ */
+public class RectangleCoalescerTest {
+
+    @Test
+    public void coalescedRectanglesCoverTheSameBlocks() {
+        final Random random = new Random(9);
+        int before = 0, after = 0;
+        for (int round = 0; round < 500; round++) {
+            // Rectangles on a grid, so that many of them can be merged
+            final Rectangle[] rectangles = new Rectangle[2 + random.nextInt(30)];
+            for (int i = 0; i < rectangles.length; i++) {
+                final int x = random.nextInt(6) * 10, y = random.nextInt(6) * 10;
+                rectangles[i] = new Rectangle(x, y, x + (random.nextBoolean() ? 9 : 19),
+                        y + (random.nextBoolean() ? 9 : random.nextInt(30)));
+            }
+            final Rectangle[] coalesced = RectangleCoalescer.coalesce(rectangles);
+            before += rectangles.length;
+            after += coalesced.length;
+            assertTrue(coalesced.length <= rectangles.length);
+            for (int x = -5; x < 90; x++) {
+                for (int y = -5; y < 100; y++) {
+                    assertEquals(x + "," + y, covers(rectangles, x, y), covers(coalesced, x, y));
+                }
+            }
+        }
+        assertTrue("Nothing was coalesced", after < before);
+    }
+
+    private static boolean covers(final Rectangle[] rectangles, final int x, final int y) {
+        for (final Rectangle rectangle : rectangles) {
+            if (rectangle.isInside(x, y)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
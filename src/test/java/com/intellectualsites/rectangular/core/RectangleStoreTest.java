@@ -0,0 +1,165 @@
+package com.intellectualsites.rectangular.core;
+
+import com.intellectualsites.rectangular.vector.Vector2;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks slice reuse in the rectangle store, and compares
+ * regions in the store against the same regions on the heap
+ */
+public class RectangleStoreTest {
+
+    @After
+    public void resetStore() {
+        RectangleStore.setDefaultStore(null);
+    }
+
+    @Test
+    public void freedSlicesAreReused() {
+        final RectangleStore store = RectangleStore.direct(16);
+        final int first = store(store, 3), second = store(store, 3), third = store(store, 3);
+        assertEquals(12, store.getHighWaterMark());
+
+        store.free(second, 3);
+        assertEquals(second, store(store, 3));
+        assertEquals(12, store.getHighWaterMark());
+
+        // Adjacent free slices are merged into one that fits more
+        store.free(first, 3);
+        store.free(second, 3);
+        assertEquals(first, store(store, 7));
+        assertEquals(12, store.getHighWaterMark());
+
+        store.free(first, 7);
+        store.free(third, 3);
+        assertEquals(0, store.getUsedRecords());
+        assertEquals(0, store.getHighWaterMark());
+        store.close();
+    }
+
+    @Test
+    public void liveSlicesKeepTheirContents() {
+        final Random random = new Random(13);
+        final RectangleStore store = RectangleStore.direct(4);
+        final Map<Integer, Rectangle[]> live = new HashMap<>();
+        for (int step = 0; step < 5000; step++) {
+            if (!live.isEmpty() && random.nextInt(3) == 0) {
+                final int offset = new ArrayList<>(live.keySet()).get(random.nextInt(live.size()));
+                store.free(offset, live.remove(offset).length);
+                continue;
+            }
+            final Rectangle[] rectangles = new Rectangle[1 + random.nextInt(20)];
+            for (int i = 0; i < rectangles.length; i++) {
+                rectangles[i] = RegionIndexTest.randomBox(random, 1000, 50);
+            }
+            Arrays.sort(rectangles, Comparator.comparingInt(rectangle -> rectangle.getMin().getX()));
+            live.put(store(store, rectangles), rectangles);
+        }
+        int used = 0;
+        for (final Map.Entry<Integer, Rectangle[]> slice : live.entrySet()) {
+            final Rectangle[] stored = store.getRectangles(slice.getKey(), slice.getValue().length, 0);
+            assertArrayEquals(toStrings(slice.getValue()), toStrings(stored));
+            used += slice.getValue().length + 1;
+        }
+        assertEquals(used, store.getUsedRecords());
+        assertTrue(store.getHighWaterMark() >= used);
+        store.close();
+    }
+
+    @Test
+    public void storedRegionsMatchHeapRegions() throws IOException {
+        final File file = File.createTempFile("rectangles", ".store");
+        for (final RectangleStore store : new RectangleStore[] { RectangleStore.direct(4),
+                RectangleStore.mapped(file, 4) }) {
+            final Random random = new Random(3);
+            final List<SimpleRegion> kept = new ArrayList<>();
+            for (int round = 0; round < 300; round++) {
+                final List<Rectangle> rectangles = new ArrayList<>();
+                final int count = 1 + random.nextInt(40);
+                for (int i = 0; i < count; i++) {
+                    final int x = random.nextInt(200), y = random.nextInt(200);
+                    rectangles.add(new Rectangle(x, y, x + random.nextInt(30), y + random.nextInt(30)));
+                }
+                RectangleStore.setDefaultStore(null);
+                final SimpleRegion heap = compile(round, rectangles);
+                RectangleStore.setDefaultStore(store);
+                final SimpleRegion stored = compile(round, rectangles);
+                assertEquals(heap.getRectangleCount(), stored.getRectangleCount());
+                for (int query = 0; query < 300; query++) {
+                    final int x = random.nextInt(240) - 5, y = random.nextInt(240) - 5;
+                    final int width = random.nextInt(20), height = random.nextInt(20);
+                    assertEquals(heap.isInRegion(x, y), stored.isInRegion(x, y));
+                    assertEquals(heap.overlaps(x, y, x + width, y + height),
+                            stored.overlaps(x, y, x + width, y + height));
+                    final int index = stored.getRectangle(new Vector2(x, y));
+                    assertTrue(index == -1 || stored.getRectangles()[index].isInside(x, y));
+                }
+                if (round % 2 == 0) {
+                    // A released region is empty, and its slice goes back to the store
+                    stored.release();
+                    final Rectangle first = rectangles.get(0);
+                    assertFalse(stored.isInRegion(first.getMin().getX(), first.getMin().getY()));
+                    assertFalse(stored.overlaps(-1000, -1000, 1000, 1000));
+                    assertEquals(0, stored.getRectangles().length);
+                } else {
+                    kept.add(stored);
+                }
+            }
+            kept.forEach(SimpleRegion::release);
+            assertEquals(0, store.getUsedRecords());
+            assertEquals(0, store.getHighWaterMark());
+            store.close();
+        }
+    }
+
+    private static SimpleRegion compile(final int id, final List<Rectangle> rectangles) {
+        final SimpleRegion region = new SimpleRegion(id, 1, "w:test");
+        region.setRectangles(rectangles);
+        region.compile();
+        return region;
+    }
+
+    private static int store(final RectangleStore store, final int count) {
+        final Rectangle[] rectangles = new Rectangle[count];
+        for (int i = 0; i < count; i++) {
+            rectangles[i] = new Rectangle(i, i, i + 1, i + 1);
+        }
+        return store(store, rectangles);
+    }
+
+    private static int store(final RectangleStore store, final Rectangle[] rectangles) {
+        final int[] minX = new int[rectangles.length], minY = new int[rectangles.length];
+        final int[] maxX = new int[rectangles.length], maxY = new int[rectangles.length];
+        for (int i = 0; i < rectangles.length; i++) {
+            minX[i] = rectangles[i].getMin().getX();
+            minY[i] = rectangles[i].getMin().getY();
+            maxX[i] = rectangles[i].getMax().getX();
+            maxY[i] = rectangles[i].getMax().getY();
+        }
+        return store.store(new Rectangle(0, 0, 1, 1), minX, minY, maxX, maxY);
+    }
+
+    private static String[] toStrings(final Rectangle[] rectangles) {
+        final String[] strings = new String[rectangles.length];
+        for (int i = 0; i < rectangles.length; i++) {
+            strings[i] = rectangles[i].toString();
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,120 @@
+package com.intellectualsites.rectangular.core;
+
+import com.intellectualsites.rectangular.vector.Vector2;
+import org.junit.Test;
+
+import java.awt.geom.Area;
+import java.awt.geom.PathIterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the sweep line union against {@link Area}, and against the blocks it covers
+ */
+public class RectangleUnionTest {
+
+    @Test
+    public void cornersAreVerticesOfTheArea() {
+        final Random random = new Random(3);
+        for (int round = 0; round < 2000; round++) {
+            final List<Rectangle> rectangles = randomRectangles(random, 15, 40, 15, 0);
+            final Area area = new Area();
+            for (final Rectangle rectangle : rectangles) {
+                area.add(new Area(new java.awt.Rectangle(rectangle.getMin().getX(), rectangle.getMin().getY(),
+                        rectangle.getMax().getX() - rectangle.getMin().getX(),
+                        rectangle.getMax().getY() - rectangle.getMin().getY())));
+            }
+            final Set<Long> vertices = new HashSet<>();
+            final double[] coordinates = new double[6];
+            for (PathIterator path = area.getPathIterator(null); !path.isDone(); path.next()) {
+                if (path.currentSegment(coordinates) != PathIterator.SEG_CLOSE) {
+                    vertices.add(pack((int) coordinates[0], (int) coordinates[1]));
+                }
+            }
+            final RectangleUnion union = RectangleUnion.of(rectangles.toArray(new Rectangle[0]));
+            for (final Vector2 corner : union.getCorners()) {
+                assertTrue(corner + " isn't a vertex of " + rectangles,
+                        vertices.contains(pack(corner.getX(), corner.getY())));
+            }
+        }
+    }
+
+    @Test
+    public void outlineMatchesBorderBlocks() {
+        final Random random = new Random(5);
+        for (int round = 0; round < 1000; round++) {
+            final List<Rectangle> rectangles = randomRectangles(random, 10, 30, 12, 1);
+            // A block is on the outline if any of its corners is outside of the union
+            final Set<Long> expected = new HashSet<>();
+            for (int x = -2; x < 50; x++) {
+                for (int y = -2; y < 50; y++) {
+                    if (!covers(rectangles, x, y)) {
+                        continue;
+                    }
+                    for (double dx = -.5; dx <= .5; dx++) {
+                        for (double dy = -.5; dy <= .5; dy++) {
+                            if (!covers(rectangles, x + dx, y + dy)) {
+                                expected.add(pack(x, y));
+                            }
+                        }
+                    }
+                }
+            }
+            final RectangleUnion union = RectangleUnion.of(rectangles.toArray(new Rectangle[0]));
+            final Set<Long> corners = new HashSet<>();
+            for (final Vector2 corner : union.getCorners()) {
+                corners.add(pack(corner.getX(), corner.getY()));
+            }
+            final Set<Long> withCorners = collect(union.outline(true, 1));
+            final Set<Long> withoutCorners = collect(union.outline(false, 1));
+            assertEquals(rectangles.toString(), expected, withCorners);
+            assertTrue("Vertices in the outline without corners", Collections.disjoint(withoutCorners, corners));
+            withoutCorners.addAll(corners);
+            assertEquals(rectangles.toString(), withCorners, withoutCorners);
+            assertTrue(withCorners.containsAll(collect(union.outline(true, 3))));
+        }
+    }
+
+    private static List<Rectangle> randomRectangles(final Random random, final int maxCount, final int range,
+                                                    final int maxSize, final int minSize) {
+        final List<Rectangle> rectangles = new ArrayList<>();
+        final int count = 1 + random.nextInt(maxCount);
+        for (int i = 0; i < count; i++) {
+            final int x = random.nextInt(range) - (minSize == 0 ? range / 2 : 0);
+            final int y = random.nextInt(range) - (minSize == 0 ? range / 2 : 0);
+            rectangles.add(new Rectangle(x, y, x + minSize + random.nextInt(maxSize),
+                    y + minSize + random.nextInt(maxSize)));
+        }
+        return rectangles;
+    }
+
+    private static Set<Long> collect(final PrimitiveIterator.OfLong iterator) {
+        final Set<Long> points = new HashSet<>();
+        while (iterator.hasNext()) {
+            points.add(iterator.nextLong());
+        }
+        return points;
+    }
+
+    private static boolean covers(final List<Rectangle> rectangles, final double x, final double y) {
+        for (final Rectangle rectangle : rectangles) {
+            if (x >= rectangle.getMin().getX() && x <= rectangle.getMax().getX()
+                    && y >= rectangle.getMin().getY() && y <= rectangle.getMax().getY()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long pack(final int x, final int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,196 @@
+package com.intellectualsites.rectangular.core;
+
+import com.intellectualsites.rectangular.util.IntList;
+import com.intellectualsites.rectangular.vector.Vector2;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares an index engine against a brute force scan of the boxes
+ */
+public abstract class RegionIndexTest {
+
+    static final Rectangle WORLD = new Rectangle(Integer.MIN_VALUE, Integer.MIN_VALUE,
+            Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    /**
+     * Create an empty index. Implementations may lower the
+     * thresholds of the engine, so that its nodes split early
+     */
+    protected abstract RegionIndex createIndex();
+
+    @After
+    public void resetSettings() {
+        Quadrant.setSplitThreshold(32);
+        ChunkGridIndex.setMaxChunksPerRegion(4096);
+    }
+
+    @Test
+    public void insertedEntriesMatchBruteForce() {
+        check(false);
+    }
+
+    @Test
+    public void bulkLoadedEntriesMatchBruteForce() {
+        check(true);
+    }
+
+    @Test
+    public void copiesDontShareChanges() {
+        final Random random = new Random(11);
+        final RegionIndex original = createIndex();
+        final Map<Integer, Rectangle> originalBoxes = new HashMap<>();
+        for (int id = 0; id < 500; id++) {
+            final Rectangle box = randomBox(random, 2000, 200);
+            original.insert(id, box);
+            originalBoxes.put(id, box);
+        }
+        final RegionIndex copy = original.copy();
+        final Map<Integer, Rectangle> copyBoxes = new HashMap<>(originalBoxes);
+        for (int step = 0; step < 1000; step++) {
+            // Change both sides, each has to keep seeing only its own changes
+            final boolean left = random.nextBoolean();
+            final RegionIndex index = left ? original : copy;
+            final Map<Integer, Rectangle> boxes = left ? originalBoxes : copyBoxes;
+            final int id = random.nextInt(800);
+            final Rectangle existing = boxes.remove(id);
+            if (existing != null) {
+                assertTrue("lost " + id, index.remove(id, existing));
+            } else {
+                final Rectangle box = randomBox(random, 2000, 200);
+                index.insert(id, box);
+                boxes.put(id, box);
+            }
+        }
+        assertContents(original, originalBoxes);
+        assertContents(copy, copyBoxes);
+    }
+
+    @Test
+    public void nearestMatchesBruteForce() {
+        final Random random = new Random(5);
+        for (int round = 0; round < 30; round++) {
+            final RegionIndex index = createIndex();
+            final Map<Integer, Rectangle> boxes = new HashMap<>();
+            final int count = random.nextInt(300);
+            for (int id = 0; id < count; id++) {
+                final Rectangle box = randomBox(random, 10000, 200);
+                index.insert(id, box);
+                boxes.put(id, box);
+            }
+            for (int id = 0; id < count / 3; id++) {
+                index.remove(id, boxes.remove(id));
+            }
+            for (int query = 0; query < 50; query++) {
+                final int x = random.nextInt(12000) - 1000, y = random.nextInt(12000) - 1000;
+                final int nearest = index.nearest(new Vector2(x, y));
+                if (boxes.isEmpty()) {
+                    assertEquals(-1, nearest);
+                    continue;
+                }
+                long best = Long.MAX_VALUE;
+                for (final Rectangle box : boxes.values()) {
+                    best = Math.min(best, distance(box, x, y));
+                }
+                assertTrue("returned a removed entry", boxes.containsKey(nearest));
+                assertEquals(best, distance(boxes.get(nearest), x, y));
+            }
+        }
+    }
+
+    private void check(final boolean bulkLoad) {
+        final Random random = new Random(7);
+        final RegionIndex index = createIndex();
+        final Map<Integer, Rectangle> boxes = new HashMap<>();
+        final IntList ids = new IntList();
+        final List<Rectangle> loaded = new ArrayList<>();
+        for (int id = 0; id < 3000; id++) {
+            final Rectangle box = randomBox(random, 20000, 300);
+            boxes.put(id, box);
+            if (bulkLoad && id < 2000) {
+                ids.add(id);
+                loaded.add(box);
+            } else {
+                index.insert(id, box);
+            }
+        }
+        if (bulkLoad) {
+            index.bulkLoad(ids, loaded);
+        }
+        for (int id = 0; id < 1500; id += 3) {
+            assertTrue("lost " + id, index.remove(id, boxes.remove(id)));
+        }
+        assertContents(index, boxes);
+        for (int query = 0; query < 2000; query++) {
+            final int x = random.nextInt(21000) - 10500, y = random.nextInt(21000) - 10500;
+            final Set<Integer> expected = new HashSet<>();
+            boxes.forEach((id, box) -> {
+                if (box.isInside(x, y)) {
+                    expected.add(id);
+                }
+            });
+            // Indexes may report candidates, but never miss an entry
+            final Set<Integer> visited = new HashSet<>();
+            index.visit(x, y, id -> {
+                if (boxes.get(id).isInside(x, y)) {
+                    visited.add(id);
+                }
+                return true;
+            });
+            assertEquals("at " + x + "," + y, expected, visited);
+
+            final Rectangle area = randomBox(random, 21000, 500);
+            final Set<Integer> overlapping = new HashSet<>();
+            boxes.forEach((id, box) -> {
+                if (box.overlaps(area)) {
+                    overlapping.add(id);
+                }
+            });
+            final IntList collected = new IntList();
+            index.collect(area, collected);
+            assertEquals("collected duplicates", overlapping.size(), collected.size());
+            assertEquals("in " + area, overlapping, toSet(collected));
+        }
+    }
+
+    private static void assertContents(final RegionIndex index, final Map<Integer, Rectangle> boxes) {
+        final IntList ids = new IntList();
+        final List<Rectangle> collected = new ArrayList<>();
+        index.collectAll(ids, collected);
+        assertEquals(boxes.size(), ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            final Rectangle box = boxes.get(ids.get(i));
+            assertEquals(box.toString(), collected.get(i).toString());
+        }
+    }
+
+    static Rectangle randomBox(final Random random, final int range, final int size) {
+        final int x = random.nextInt(range) - range / 2, y = random.nextInt(range) - range / 2;
+        return new Rectangle(x, y, x + random.nextInt(size), y + random.nextInt(size));
+    }
+
+    private static long distance(final Rectangle box, final int x, final int y) {
+        final long dx = Math.max(0, Math.max(box.getMin().getX() - x, x - box.getMax().getX()));
+        final long dy = Math.max(0, Math.max(box.getMin().getY() - y, y - box.getMax().getY()));
+        return dx * dx + dy * dy;
+    }
+
+    private static Set<Integer> toSet(final IntList list) {
+        final Set<Integer> set = new HashSet<>();
+        for (int i = 0; i < list.size(); i++) {
+            set.add(list.get(i));
+        }
+        return set;
+    }
+}
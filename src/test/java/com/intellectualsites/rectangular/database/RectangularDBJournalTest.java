@@ -0,0 +1,156 @@
+package com.intellectualsites.rectangular.database;
+
+import com.intellectualsites.rectangular.api.objects.Region;
+import com.intellectualsites.rectangular.core.Rectangle;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays the journal after random writes, and after a torn write at its end
+ */
+public class RectangularDBJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replayRestoresTheState() throws IOException {
+        final File directory = folder.newFolder();
+        final Random random = new Random(17);
+        final Map<Integer, List<Rectangle>> expected = new HashMap<>();
+        RectangularDBJournal db = open(directory);
+        for (int step = 0; step < 2000; step++) {
+            if (expected.isEmpty() || random.nextInt(4) == 0) {
+                final List<Rectangle> rectangles = Collections.singletonList(randomRectangle(random));
+                final Region region = db.createRegion("owner" + step, "w:world" + step % 3, rectangles);
+                expected.put(region.getId(), new ArrayList<>(rectangles));
+            } else {
+                final int id = 1 + random.nextInt(expected.size());
+                final Rectangle rectangle = randomRectangle(random);
+                if (random.nextBoolean()) {
+                    db.addRectangle(id, rectangle);
+                    expected.get(id).add(rectangle);
+                } else {
+                    db.replaceRectangles(id, Collections.singletonList(rectangle));
+                    expected.put(id, new ArrayList<>(Collections.singletonList(rectangle)));
+                }
+            }
+            if (step == 1000) {
+                // Half of the state ends up in the checkpoint, the rest in the journal after it
+                db.compact();
+            }
+        }
+        final long revision = db.getRevision();
+        db.close();
+
+        db = open(directory);
+        assertEquals(revision, db.getRevision());
+        assertRegions(expected, db);
+        final int[] world = new int[1];
+        db.streamRegions("w:world1", region -> {
+            assertEquals("w:world1", region.getOwningContainer());
+            world[0]++;
+        });
+        assertTrue(world[0] > 0);
+        db.close();
+    }
+
+    @Test
+    public void playerMetaBatchesAreReplayed() throws IOException {
+        final File directory = folder.newFolder();
+        RectangularDBJournal db = open(directory);
+        db.addPlayerMeta("player", "kept", new byte[] { 1 });
+        db.addPlayerMeta("player", "removed", new byte[] { 2 });
+        final Map<PlayerMetaQueue.Key, byte[]> batch = new HashMap<>();
+        batch.put(new PlayerMetaQueue.Key("player", "kept"), new byte[] { 3 });
+        batch.put(new PlayerMetaQueue.Key("player", "removed"), null);
+        batch.put(new PlayerMetaQueue.Key("other", "added"), new byte[] { 4 });
+        db.writePlayerMeta(batch);
+        db.close();
+
+        db = open(directory);
+        final Map<String, byte[]> player = db.readPlayerMeta("player");
+        assertArrayEquals(new byte[] { 3 }, player.get("kept"));
+        assertFalse(player.containsKey("removed"));
+        assertArrayEquals(new byte[] { 4 }, db.readPlayerMeta("other").get("added"));
+        db.close();
+    }
+
+    @Test
+    public void tornTailIsTruncated() throws IOException {
+        final File directory = folder.newFolder();
+        RectangularDBJournal db = open(directory);
+        final Map<Integer, List<Rectangle>> expected = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            final Rectangle rectangle = new Rectangle(i, i, i + 5, i + 5);
+            final Region region = db.createRegion("owner", "w:world", Collections.singletonList(rectangle));
+            expected.put(region.getId(), new ArrayList<>(Collections.singletonList(rectangle)));
+        }
+        db.addRectangle(1, new Rectangle(0, 0, 1, 1));
+        db.close();
+
+        // Cut the last record short, as a crash during the write would
+        final File segment = new File(directory, "journal-00000000.log");
+        final long length = segment.length();
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(length - 3);
+        }
+        db = open(directory);
+        assertRegions(expected, db);
+        // 4 ints for the rectangle, the region ID, the type and the frame header
+        assertEquals(length - 16 - 4 - 1 - JournalWriter.FRAME_HEADER, segment.length());
+
+        // Writing continues after the last complete record
+        final Region region = db.createRegion("owner", "w:world", Collections.singletonList(new Rectangle(0, 0, 1, 1)));
+        assertEquals(11, region.getId());
+        db.close();
+        db = open(directory);
+        assertEquals(11, db.loadRegionsBulk().size());
+        assertNull(db.loadRegionData(12));
+        db.close();
+    }
+
+    private static RectangularDBJournal open(final File directory) {
+        final RectangularDBJournal db = new RectangularDBJournal(directory);
+        assertTrue(db.testConnection());
+        db.createSchema();
+        return db;
+    }
+
+    private static void assertRegions(final Map<Integer, List<Rectangle>> expected, final RectangularDB db) {
+        final List<Region> regions = db.loadRegionsBulk();
+        assertEquals(expected.size(), regions.size());
+        for (final Region region : regions) {
+            assertEquals(toStrings(expected.get(region.getId())), toStrings(Arrays.asList(region.getRectangles())));
+        }
+    }
+
+    private static List<String> toStrings(final List<Rectangle> rectangles) {
+        final List<String> strings = new ArrayList<>();
+        rectangles.forEach(rectangle -> strings.add(rectangle.toString()));
+        return strings;
+    }
+
+    private static Rectangle randomRectangle(final Random random) {
+        final int x = random.nextInt(10000) - 5000, y = random.nextInt(10000) - 5000;
+        return new Rectangle(x, y, x + random.nextInt(100), y + random.nextInt(100));
+    }
+}